@@ -0,0 +1,167 @@
+package com.example.filestorage.benchmark;
+
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.model.User;
+import com.example.filestorage.repository.FileMetadataRepository;
+import com.example.filestorage.repository.UserRepository;
+import com.example.filestorage.security.CustomUserDetailsService;
+import com.example.filestorage.security.JwtUtil;
+import com.example.filestorage.service.FileEncryptionService;
+import com.example.filestorage.service.FileStorageService;
+import com.example.filestorage.service.MetadataWriteBuffer;
+import com.example.filestorage.service.SearchIndexService;
+import com.example.filestorage.service.StorageMetrics;
+import com.example.filestorage.service.TransferScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Wires the services by hand, with in-memory stand-ins for the Mongo repositories, so the
+ * benchmarks measure the code under test rather than a database round-trip.
+ */
+final class BenchmarkSupport {
+
+    static final String SECRET = "MyVerySecureSecretKeyForJWTTokenGenerationThatIsAtLeast256BitsLong1234567890";
+    static final String USERNAME = "bench";
+    static final String USER_ID = "650000000000000000000001";
+    static final String MASTER_KEY = "AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=";
+
+    private BenchmarkSupport() {
+    }
+
+    static void set(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + fieldName, e);
+        }
+    }
+
+    static JwtUtil jwtUtil() {
+        JwtUtil jwtUtil = new JwtUtil();
+        set(jwtUtil, "secret", SECRET);
+        set(jwtUtil, "accessTokenExpiration", 900_000L);
+        set(jwtUtil, "refreshTokenExpiration", 2_592_000_000L);
+        return jwtUtil;
+    }
+
+    static User user() {
+        User user = new User();
+        user.setId(USER_ID);
+        user.setUsername(USERNAME);
+        user.setPassword("$2a$10$7EqJtq98hPqEX7fNZaFWoOhi5BWX4Z0nZk0Z2q9z5rBqk6s1qZ9zC");
+        user.setRoles(Set.of("USER"));
+        return user;
+    }
+
+    static UserRepository userRepository() {
+        User user = user();
+        return repository(UserRepository.class, (method, args) -> switch (method) {
+            case "findByUsername" -> Optional.of(user).filter(u -> u.getUsername().equals(args[0]));
+            case "findById" -> Optional.of(user).filter(u -> u.getId().equals(args[0]));
+            default -> null;
+        });
+    }
+
+    static CustomUserDetailsService userDetailsService() {
+        CustomUserDetailsService service = new CustomUserDetailsService();
+        set(service, "userRepository", userRepository());
+        return service;
+    }
+
+    static FileMetadataRepository fileMetadataRepository() {
+        return repository(FileMetadataRepository.class, (method, args) -> switch (method) {
+            case "save" -> args[0];
+            case "findActiveByOwnerIdAndFilename", "findActiveByOwnerId", "findByOwnerId" -> List.of();
+            case "findById" -> Optional.empty();
+            default -> null;
+        });
+    }
+
+    static StorageMetrics storageMetrics(TransferScheduler transferScheduler) {
+        StorageMetrics metrics = new StorageMetrics();
+        set(metrics, "registry", new SimpleMeterRegistry());
+        set(metrics, "transferScheduler", transferScheduler);
+        metrics.init();
+        return metrics;
+    }
+
+    static TransferScheduler transferScheduler() {
+        TransferScheduler scheduler = new TransferScheduler();
+        set(scheduler, "tierBytesPerSecond", Map.of("USER", 0L));
+        set(scheduler, "tierWeights", Map.of("USER", 1));
+        set(scheduler, "userRepository", userRepository());
+        return scheduler;
+    }
+
+    static FileEncryptionService fileEncryptionService(boolean enabled) {
+        FileEncryptionService service = new FileEncryptionService();
+        set(service, "enabled", enabled);
+        set(service, "masterKeyBase64", MASTER_KEY);
+        set(service, "segmentSize", 64 * 1024);
+        service.init();
+        return service;
+    }
+
+    static FileStorageService fileStorageService(Path uploadDir) {
+        return fileStorageService(uploadDir, false);
+    }
+
+    static FileStorageService fileStorageService(Path uploadDir, boolean encrypted) {
+        TransferScheduler transferScheduler = transferScheduler();
+        FileStorageService service = new FileStorageService();
+        set(service, "uploadDir", uploadDir.toString());
+        set(service, "fileMetadataRepository", fileMetadataRepository());
+        set(service, "metadataWriteBuffer", new MetadataWriteBuffer());
+        set(service, "transferScheduler", transferScheduler);
+        set(service, "searchIndexService", new SearchIndexService());
+        set(service, "storageMetrics", storageMetrics(transferScheduler));
+        set(service, "fileEncryptionService", fileEncryptionService(encrypted));
+        return service;
+    }
+
+    // tmpfs keeps the numbers about the code path rather than the disk under the build machine
+    static Path scratchDir(String prefix) throws Exception {
+        Path shm = Paths.get("/dev/shm");
+        return Files.isDirectory(shm) && Files.isWritable(shm)
+                ? Files.createTempDirectory(shm, prefix)
+                : Files.createTempDirectory(prefix);
+    }
+
+    static FileMetadata metadata(int i) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setId(String.format("%024x", i));
+        metadata.setFilename("document-" + i + ".pdf");
+        metadata.setContentType("application/pdf");
+        metadata.setSize(1024L * i);
+        metadata.setUploadDate(new Date(1_700_000_000_000L + i));
+        metadata.setOwnerId(USER_ID);
+        return metadata;
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(answer, args);
+            }
+            return answer.answer(method.getName(), args);
+        });
+    }
+}
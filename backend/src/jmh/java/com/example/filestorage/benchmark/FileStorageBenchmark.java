@@ -0,0 +1,92 @@
+package com.example.filestorage.benchmark;
+
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.service.FileStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileStorageBenchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    private int fileSize;
+
+    @Param({"false", "true"})
+    private boolean encrypted;
+
+    private Path uploadDir;
+    private FileStorageService fileStorageService;
+    private MockMultipartFile upload;
+    private FileMetadata stored;
+    private byte[] readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        uploadDir = BenchmarkSupport.scratchDir("storage-bench");
+        fileStorageService = BenchmarkSupport.fileStorageService(uploadDir, encrypted);
+
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        upload = new MockMultipartFile("file", "bench.bin", "application/octet-stream", content);
+        stored = fileStorageService.storeFile(upload, BenchmarkSupport.USER_ID);
+        readBuffer = new byte[64 * 1024];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FileSystemUtils.deleteRecursively(uploadDir);
+    }
+
+    @Benchmark
+    public FileMetadata storeFile() throws Exception {
+        return fileStorageService.storeFile(upload, BenchmarkSupport.USER_ID);
+    }
+
+    @Benchmark
+    public long readFile() throws Exception {
+        try (InputStream in = fileStorageService.openStream(stored)) {
+            return drain(in, Long.MAX_VALUE);
+        }
+    }
+
+    // What a video seek does: skip to the middle and read one buffer's worth
+    @Benchmark
+    public long readRange() throws Exception {
+        try (InputStream in = fileStorageService.openStream(stored)) {
+            in.skip(fileSize / 2);
+            return drain(in, readBuffer.length);
+        }
+    }
+
+    private long drain(InputStream in, long limit) throws Exception {
+        long total = 0;
+        int read;
+        while (total < limit && (read = in.read(readBuffer, 0, (int) Math.min(readBuffer.length, limit - total))) > 0) {
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.filestorage.benchmark;
+
+import com.example.filestorage.model.FileMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataSerializationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int files;
+
+    private ObjectMapper objectMapper;
+    private List<FileMetadata> metadata;
+
+    @Setup
+    public void setup() {
+        // Same defaults Spring MVC uses for the /files response
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        metadata = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            metadata.add(BenchmarkSupport.metadata(i));
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeFileList() throws Exception {
+        return objectMapper.writeValueAsBytes(metadata);
+    }
+}
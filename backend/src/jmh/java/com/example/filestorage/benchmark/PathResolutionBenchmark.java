@@ -0,0 +1,53 @@
+package com.example.filestorage.benchmark;
+
+import com.example.filestorage.service.FileStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathResolutionBenchmark {
+
+    @Param({"report.pdf", "Quarterly Report (final) v2 - 2024-03-31.xlsx", "../../etc/passwd"})
+    private String filename;
+
+    private FileStorageService fileStorageService;
+
+    @Setup
+    public void setup() {
+        fileStorageService = BenchmarkSupport.fileStorageService(Paths.get("uploads"));
+    }
+
+    @Benchmark
+    public Object resolveUploadPath() {
+        try {
+            return fileStorageService.resolveUploadPath(BenchmarkSupport.USER_ID, filename);
+        } catch (IOException e) {
+            // Rejected names are part of the measured path
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Path getFilePath() {
+        return fileStorageService.getFilePath(filename, BenchmarkSupport.USER_ID);
+    }
+}
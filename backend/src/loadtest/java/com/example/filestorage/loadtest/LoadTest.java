@@ -0,0 +1,349 @@
+package com.example.filestorage.loadtest;
+
+import com.example.filestorage.FileStorageApplication;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.model.User;
+import com.example.filestorage.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.flapdoodle.embed.mongo.commands.ServerAddress;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.transitions.Mongod;
+import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
+import de.flapdoodle.reverse.TransitionWalker;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Boots the application against an embedded mongod and a scratch upload directory, then drives it
+ * over HTTP: a login storm, followed by a warmup and a measured run of the configured operation mix.
+ */
+public final class LoadTest {
+
+    static final List<String> OPERATIONS = List.of("upload", "range-read", "list-large", "delete", "login");
+
+    private static final String PASSWORD = "loadtest-password";
+    private static final String LARGE_ACCOUNT = "loadtest-large";
+    private static final long TOKEN_REFRESH_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final LoadTestOptions options;
+    private final LoadTestClient client;
+    private final List<VirtualUser> users = new ArrayList<>();
+    private final Map<Long, byte[]> payloads = new LinkedHashMap<>();
+    private final Map<String, Object> report = new LinkedHashMap<>();
+    // Shared by every virtual user running list-large; guarded by its own monitor
+    private final VirtualUser largeAccount = new VirtualUser(LARGE_ACCOUNT, 0);
+
+    private static final class VirtualUser {
+        private final String username;
+        private final Random random;
+        private final Deque<String> deletable = new ArrayDeque<>();
+        private String token;
+        private long tokenIssued;
+        private String videoId;
+        private int uploads;
+
+        VirtualUser(String username, long seed) {
+            this.username = username;
+            this.random = new Random(seed);
+        }
+    }
+
+    private interface Operation {
+        void run(VirtualUser user, LatencyRecorder recorder);
+    }
+
+    private LoadTest(LoadTestOptions options, int port) {
+        this.options = options;
+        this.client = new LoadTestClient(port);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        Path workDir = Files.createTempDirectory("filestorage-loadtest");
+        TransitionWalker.ReachedState<RunningMongodProcess> mongod = null;
+        ConfigurableApplicationContext context = null;
+        try {
+            String mongoUri = options.mongoUri;
+            if (mongoUri == null) {
+                mongod = Mongod.instance().start(Version.Main.V6_0);
+                ServerAddress address = mongod.current().getServerAddress();
+                mongoUri = "mongodb://" + address.getHost() + ":" + address.getPort() + "/filestorage-loadtest";
+            }
+
+            // System properties outrank application.properties; "--" arguments still override these
+            String maxUpload = String.valueOf(options.maxUploadSize());
+            System.setProperty("spring.data.mongodb.uri", mongoUri);
+            System.setProperty("server.port", "0");
+            System.setProperty("management.server.port", "0");
+            System.setProperty("file.upload-dir", workDir.resolve("uploads").toString());
+            System.setProperty("file.metadata.write-behind.wal-dir", workDir.resolve("metadata-wal").toString());
+            System.setProperty("file.search.index-dir", workDir.resolve("search-index").toString());
+            System.setProperty("spring.servlet.multipart.max-file-size", maxUpload);
+            System.setProperty("spring.servlet.multipart.max-request-size", maxUpload);
+
+            context = new SpringApplicationBuilder(FileStorageApplication.class)
+                    .run(options.applicationArgs.toArray(String[]::new));
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+
+            LoadTest loadTest = new LoadTest(options, port);
+            loadTest.setup(context);
+            loadTest.run();
+            loadTest.writeReport();
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            if (mongod != null) {
+                mongod.close();
+            }
+            FileSystemUtils.deleteRecursively(workDir);
+        }
+    }
+
+    private void setup(ConfigurableApplicationContext context) throws Exception {
+        log("Preparing %d users, %d-file account and %d-byte videos", options.users, options.largeAccountFiles, options.videoSize);
+        Random random = new Random(42);
+        for (long size : options.uploadSizes) {
+            payloads.put(size, randomBytes(random, size));
+        }
+        byte[] video = randomBytes(random, options.videoSize);
+
+        LatencyRecorder setup = new LatencyRecorder();
+        for (int i = 0; i < options.users; i++) {
+            users.add(new VirtualUser("loadtest-user-" + i, 1000L + i));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(options.users);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (VirtualUser user : users) {
+                futures.add(pool.submit(() -> {
+                    client.register(setup, user.username, PASSWORD);
+                    require(login(user, setup), "Login failed for " + user.username);
+                    require(client.upload(setup, user.token, "video.mp4", "video/mp4", video),
+                            "Video upload failed for " + user.username);
+                    user.videoId = findId(setup, "list", user.token, "video.mp4");
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        client.register(setup, LARGE_ACCOUNT, PASSWORD);
+        synchronized (largeAccount) {
+            require(login(largeAccount, setup), "Login failed for " + LARGE_ACCOUNT);
+        }
+        seedLargeAccount(context);
+    }
+
+    // Listing only reads metadata, so the big account is seeded straight into Mongo without blobs
+    private void seedLargeAccount(ConfigurableApplicationContext context) {
+        MongoTemplate mongoTemplate = context.getBean(MongoTemplate.class);
+        User owner = context.getBean(UserRepository.class).findByUsername(LARGE_ACCOUNT).orElseThrow();
+        long existing = mongoTemplate.count(Query.query(Criteria.where("ownerId").is(owner.getId())), FileMetadata.class);
+
+        List<FileMetadata> batch = new ArrayList<>();
+        for (long i = existing; i < options.largeAccountFiles; i++) {
+            FileMetadata metadata = new FileMetadata();
+            metadata.setFilename("archive-" + i + ".pdf");
+            metadata.setContentType("application/pdf");
+            metadata.setSize(64 * 1024 + i);
+            metadata.setUploadDate(new Date());
+            metadata.setOwnerId(owner.getId());
+            batch.add(metadata);
+            if (batch.size() == 1000) {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileMetadata.class).insert(batch).execute();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileMetadata.class).insert(batch).execute();
+        }
+    }
+
+    private void run() throws Exception {
+        if (options.loginStormSeconds > 0) {
+            runPhase("login-storm", options.loginStormSeconds, (user, recorder) -> login(user, recorder));
+        }
+
+        List<String> weighted = new ArrayList<>();
+        options.mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        require(!weighted.isEmpty(), "The operation mix is empty");
+        Operation mixed = (user, recorder) -> {
+            refreshToken(user, recorder);
+            runOperation(weighted.get(user.random.nextInt(weighted.size())), user, recorder);
+        };
+
+        if (options.warmupSeconds > 0) {
+            runPhase("warmup", options.warmupSeconds, mixed);
+            report.remove("warmup");
+        }
+        runPhase("mixed", options.durationSeconds, mixed);
+    }
+
+    private void runOperation(String operation, VirtualUser user, LatencyRecorder recorder) {
+        switch (operation) {
+            case "upload" -> upload(user, recorder);
+            case "range-read" -> {
+                long start = (long) (user.random.nextDouble() * (options.videoSize - options.rangeSize + 1));
+                client.rangeRead(recorder, user.token, user.videoId, start, options.rangeSize);
+            }
+            case "list-large" -> client.listFiles(recorder, "list-large", largeAccountToken(recorder));
+            case "delete" -> delete(user, recorder);
+            case "login" -> login(user, recorder);
+            default -> throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    private void upload(VirtualUser user, LatencyRecorder recorder) {
+        long size = options.uploadSizes.get(user.random.nextInt(options.uploadSizes.size()));
+        String filename = "upload-" + (user.uploads++) + ".bin";
+        if (client.upload(recorder, user.token, filename, "application/octet-stream", payloads.get(size))) {
+            user.deletable.add(filename);
+        }
+    }
+
+    // Uploads do not return an id, so the user's own (small) listing is used to find one
+    private void delete(VirtualUser user, LatencyRecorder recorder) {
+        String filename = user.deletable.poll();
+        if (filename == null) {
+            upload(user, recorder);
+            return;
+        }
+        String id = findId(recorder, "list", user.token, filename);
+        if (id != null) {
+            client.delete(recorder, user.token, id);
+        }
+    }
+
+    private String findId(LatencyRecorder recorder, String endpoint, String token, String filename) {
+        List<Map<String, Object>> files = client.listFiles(recorder, endpoint, token);
+        if (files == null) {
+            return null;
+        }
+        return files.stream()
+                .filter(file -> filename.equals(file.get("filename")))
+                .map(file -> (String) file.get("id"))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private boolean login(VirtualUser user, LatencyRecorder recorder) {
+        String token = client.login(recorder, user.username, PASSWORD);
+        if (token == null) {
+            return false;
+        }
+        user.token = token;
+        user.tokenIssued = System.nanoTime();
+        return true;
+    }
+
+    private void refreshToken(VirtualUser user, LatencyRecorder recorder) {
+        if (System.nanoTime() - user.tokenIssued > TOKEN_REFRESH_NANOS) {
+            login(user, recorder);
+        }
+    }
+
+    private String largeAccountToken(LatencyRecorder recorder) {
+        synchronized (largeAccount) {
+            refreshToken(largeAccount, recorder);
+            return largeAccount.token;
+        }
+    }
+
+    private void runPhase(String phase, int seconds, Operation operation) throws Exception {
+        log("Running %s for %d s with %d users", phase, seconds, users.size());
+        LatencyRecorder recorder = new LatencyRecorder();
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(users.size());
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(seconds);
+        try {
+            for (VirtualUser user : users) {
+                pool.submit(() -> {
+                    while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                        try {
+                            operation.run(user, recorder);
+                        } catch (RuntimeException e) {
+                            if (failures.getAndIncrement() == 0) {
+                                log("Operation failed in %s: %s", phase, e);
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(seconds + 300L, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        recorder.print(phase, elapsed, System.out);
+        Map<String, Object> phaseReport = new LinkedHashMap<>();
+        phaseReport.put("seconds", elapsed);
+        phaseReport.put("users", users.size());
+        phaseReport.put("endpoints", recorder.toReport(elapsed));
+        report.put(phase, phaseReport);
+    }
+
+    private void writeReport() throws Exception {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("timestamp", new Date().toString());
+        document.put("users", options.users);
+        document.put("mix", options.mix);
+        document.put("uploadSizes", options.uploadSizes);
+        document.put("applicationArgs", options.applicationArgs);
+        document.put("phases", report);
+
+        Path path = options.report.toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), document);
+        log("Report written to %s", path);
+    }
+
+    private static byte[] randomBytes(Random random, long size) {
+        byte[] bytes = new byte[Math.toIntExact(size)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.printf("[loadtest] " + format + "%n", args);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.filestorage.loadtest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Thin HTTP client for the public API; every call is timed into the given recorder under its endpoint name
+final class LoadTestClient {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(2);
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+
+    LoadTestClient(int port) {
+        this.baseUrl = "http://localhost:" + port;
+    }
+
+    boolean register(LatencyRecorder recorder, String username, String password) {
+        HttpResponse<byte[]> response = send(recorder, "register", request("/register", null)
+                .header("Content-Type", "application/json")
+                .POST(json(Map.of("username", username, "password", password)))
+                .build());
+        // An existing user is fine when pointing the harness at a reused database
+        return response != null && (response.statusCode() == 200
+                || new String(response.body(), StandardCharsets.UTF_8).contains("already exists"));
+    }
+
+    String login(LatencyRecorder recorder, String username, String password) {
+        HttpResponse<byte[]> response = send(recorder, "login", request("/login", null)
+                .header("Content-Type", "application/json")
+                .POST(json(Map.of("username", username, "password", password)))
+                .build());
+        if (response == null || response.statusCode() != 200) {
+            return null;
+        }
+        return (String) readMap(response.body()).get("accessToken");
+    }
+
+    boolean upload(LatencyRecorder recorder, String token, String filename, String contentType, byte[] content) {
+        String boundary = "----loadtest" + UUID.randomUUID();
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        HttpResponse<byte[]> response = send(recorder, "upload", request("/upload", token)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, content, tail)))
+                .build());
+        return isOk(response);
+    }
+
+    List<Map<String, Object>> listFiles(LatencyRecorder recorder, String endpoint, String token) {
+        HttpResponse<byte[]> response = send(recorder, endpoint, request("/files", token).GET().build());
+        if (!isOk(response)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(response.body(), new TypeReference<>() {});
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable file listing", e);
+        }
+    }
+
+    boolean rangeRead(LatencyRecorder recorder, String token, String fileId, long start, long length) {
+        HttpRequest request = request("/view/" + fileId, token)
+                .header("Range", "bytes=" + start + "-" + (start + length - 1))
+                .GET()
+                .build();
+        long started = System.nanoTime();
+        try {
+            // Discarding still drains the body, so the timing covers the whole range
+            HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+            recorder.record("range-read", System.nanoTime() - started, response.statusCode() == 206);
+            return response.statusCode() == 206;
+        } catch (IOException e) {
+            recorder.record("range-read", System.nanoTime() - started, false);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    boolean delete(LatencyRecorder recorder, String token, String fileId) {
+        return isOk(send(recorder, "delete", request("/delete/" + fileId, token).DELETE().build()));
+    }
+
+    private HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT);
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+
+    private HttpResponse<byte[]> send(LatencyRecorder recorder, String endpoint, HttpRequest request) {
+        long started = System.nanoTime();
+        try {
+            HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            recorder.record(endpoint, System.nanoTime() - started, isOk(response));
+            return response;
+        } catch (IOException e) {
+            recorder.record(endpoint, System.nanoTime() - started, false);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private HttpRequest.BodyPublisher json(Map<String, String> body) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Object> readMap(byte[] body) {
+        try {
+            return objectMapper.readValue(body, new TypeReference<>() {});
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable response body", e);
+        }
+    }
+
+    private static boolean isOk(HttpResponse<?> response) {
+        return response != null && response.statusCode() / 100 == 2;
+    }
+}
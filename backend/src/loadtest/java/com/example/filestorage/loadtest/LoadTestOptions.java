@@ -0,0 +1,104 @@
+package com.example.filestorage.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Harness options are plain {@code key=value} arguments; anything starting with {@code --} is
+ * handed to the application unchanged, e.g. {@code --file.metadata.write-behind.enabled=true}.
+ */
+final class LoadTestOptions {
+
+    int users = 32;
+    int loginStormSeconds = 20;
+    int warmupSeconds = 10;
+    int durationSeconds = 60;
+    List<Long> uploadSizes = List.of(4L * 1024, 256L * 1024, 4L * 1024 * 1024);
+    long videoSize = 16L * 1024 * 1024;
+    long rangeSize = 1024L * 1024;
+    int largeAccountFiles = 20_000;
+    Map<String, Integer> mix = parseMix("upload:25,range-read:40,list-large:10,delete:15,login:10");
+    String mongoUri;
+    Path report = Paths.get("target", "loadtest-report.json");
+    final List<String> applicationArgs = new ArrayList<>();
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (arg.isBlank()) {
+                continue;
+            }
+            if (arg.startsWith("--")) {
+                options.applicationArgs.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(0, eq)) {
+                case "users" -> options.users = Integer.parseInt(value);
+                case "login-storm-seconds" -> options.loginStormSeconds = Integer.parseInt(value);
+                case "warmup-seconds" -> options.warmupSeconds = Integer.parseInt(value);
+                case "duration-seconds" -> options.durationSeconds = Integer.parseInt(value);
+                case "upload-sizes" -> options.uploadSizes = parseSizes(value);
+                case "video-size" -> options.videoSize = parseSize(value);
+                case "range-size" -> options.rangeSize = parseSize(value);
+                case "large-account-files" -> options.largeAccountFiles = Integer.parseInt(value);
+                case "mix" -> options.mix = parseMix(value);
+                case "mongo-uri" -> options.mongoUri = value;
+                case "report" -> options.report = Paths.get(value);
+                default -> throw new IllegalArgumentException("Unknown load test option " + arg);
+            }
+        }
+        if (options.users < 1 || options.rangeSize < 1 || options.rangeSize > options.videoSize) {
+            throw new IllegalArgumentException("users must be positive and range-size must fit in video-size");
+        }
+        return options;
+    }
+
+    long maxUploadSize() {
+        return Math.max(videoSize, uploadSizes.stream().mapToLong(Long::longValue).max().orElse(0));
+    }
+
+    // "4k,256k,4m" -> bytes
+    private static List<Long> parseSizes(String value) {
+        List<Long> sizes = new ArrayList<>();
+        for (String size : value.split(",")) {
+            sizes.add(parseSize(size.trim()));
+        }
+        return List.copyOf(sizes);
+    }
+
+    private static long parseSize(String value) {
+        String lower = value.toLowerCase();
+        long multiplier = 1;
+        if (lower.endsWith("k")) {
+            multiplier = 1024;
+        } else if (lower.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (lower.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        String digits = multiplier == 1 ? lower : lower.substring(0, lower.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+
+    // "upload:25,range-read:40" -> operation weights
+    private static Map<String, Integer> parseMix(String value) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2 || !LoadTest.OPERATIONS.contains(parts[0])) {
+                throw new IllegalArgumentException("Invalid mix entry " + entry + ", operations are " + LoadTest.OPERATIONS);
+            }
+            mix.put(parts[0], Integer.parseInt(parts[1]));
+        }
+        return mix;
+    }
+}
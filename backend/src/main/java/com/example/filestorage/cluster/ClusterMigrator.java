@@ -0,0 +1,361 @@
+package com.example.filestorage.cluster;
+
+import com.example.filestorage.model.ClusterNode;
+import com.example.filestorage.model.DeletionJob;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.model.UserPlacement;
+import com.example.filestorage.service.FileStorageService;
+import com.example.filestorage.service.SearchIndexService;
+import com.example.filestorage.service.TokenBucket;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+// Pull-based: each node copies in the users the ring now assigns to it, then flips their placement
+@Service
+public class ClusterMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterMigrator.class);
+    private static final String USER_DIR_PREFIX = "user_";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long WRITE_POLL_MS = 500;
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Value("${cluster.migration.interval-ms:30000}")
+    private long intervalMs;
+
+    @Value("${cluster.migration.bytes-per-second:52428800}")
+    private long bytesPerSecond;
+
+    @Value("${cluster.migration.drain-ms:5000}")
+    private long drainMs;
+
+    @Value("${cluster.migration.write-drain-timeout-ms:600000}")
+    private long writeDrainTimeoutMs;
+
+    @Value("${cluster.migration.claim-timeout-ms:3600000}")
+    private long claimTimeoutMs;
+
+    @Value("${cluster.migration.cleanup-grace-ms:300000}")
+    private long cleanupGraceMs;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private ScheduledExecutorService scheduler;
+    private TokenBucket throttle;
+
+    @PostConstruct
+    public void init() {
+        if (!clusterService.isEnabled()) {
+            return;
+        }
+        throttle = new TokenBucket(bytesPerSecond, Math.max(BUFFER_SIZE, bytesPerSecond / 10));
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-migrator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebalanceQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!clusterService.isEnabled()) {
+            return;
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void rebalanceQuietly() {
+        try {
+            migrateIncoming();
+            cleanupOutgoing();
+        } catch (Exception e) {
+            logger.error("Cluster rebalancing failed", e);
+        }
+    }
+
+    private void migrateIncoming() {
+        String self = clusterService.getNodeId();
+        // Collected first: a single user's copy can outlive the cursor timeout
+        List<UserPlacement> incoming = new ArrayList<>();
+        try (Stream<UserPlacement> stream = mongoTemplate.stream(
+                Query.query(Criteria.where("nodeId").ne(self)), UserPlacement.class)) {
+            stream.filter(placement -> self.equals(clusterService.ringOwner(placement.getId())))
+                    .forEach(incoming::add);
+        }
+        for (UserPlacement placement : incoming) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            migrate(placement);
+        }
+    }
+
+    private void migrate(UserPlacement placement) {
+        String self = clusterService.getNodeId();
+        String userId = placement.getId();
+        String source = placement.getNodeId();
+        // Files on a node that is down stay put until it returns
+        ClusterNode sourceNode = clusterService.getMember(source).orElse(null);
+        if (sourceNode == null) {
+            return;
+        }
+        // A deletion job on the source would keep removing files the copy has already taken
+        if (hasActiveDeletionJobs(userId)) {
+            return;
+        }
+
+        // Taking over our own abandoned claim resumes the copy. Otherwise files left from an earlier
+        // stay on this node may be stale or deleted since, so they go before the claim is taken
+        Path userDir = fileStorageService.getUserDir(userId);
+        if (!self.equals(placement.getMigratingTo()) && Files.isDirectory(userDir)) {
+            try {
+                removeUserDir(userDir);
+            } catch (IOException e) {
+                logger.warn("Could not clear the old copy of user {}, will retry", userId, e);
+                return;
+            }
+        }
+
+        // The claim freezes writes on the source; an abandoned claim is taken over after the timeout
+        Date staleClaim = new Date(System.currentTimeMillis() - claimTimeoutMs);
+        Query claim = Query.query(Criteria.where("id").is(userId).and("nodeId").is(source)
+                .orOperator(Criteria.where("migratingTo").is(null), Criteria.where("migrationStarted").lt(staleClaim)));
+        Update claimUpdate = new Update().set("migratingTo", self).set("migrationStarted", new Date());
+        if (mongoTemplate.updateFirst(claim, claimUpdate, UserPlacement.class).getModifiedCount() == 0) {
+            return;
+        }
+
+        Query ours = Query.query(Criteria.where("id").is(userId).and("migratingTo").is(self));
+        try {
+            // Until their cached placement expires, the source's routing filter may still accept writes
+            Thread.sleep(Math.max(drainMs, clusterService.getPlacementCacheMs()));
+            awaitWritesDrained(userId, sourceNode);
+            // Submitting a job is a write, so none can start now; one accepted before the claim must finish first
+            if (hasActiveDeletionJobs(userId)) {
+                logger.info("User {} has deletion jobs running on {}, migrating later", userId, source);
+                mongoTemplate.updateFirst(ours, new Update().unset("migratingTo").unset("migrationStarted"), UserPlacement.class);
+                return;
+            }
+            long started = System.currentTimeMillis();
+            List<FileMetadata> files = copyFiles(userId, sourceNode);
+            Update done = new Update().set("nodeId", self).set("migratedDate", new Date())
+                    .unset("migratingTo").unset("migrationStarted");
+            if (mongoTemplate.updateFirst(ours, done, UserPlacement.class).getModifiedCount() == 0) {
+                logger.warn("Lost the migration claim for user {}, leaving it on {}", userId, source);
+                return;
+            }
+            // Drops entries left from an earlier stay on this node before indexing the current files
+            searchIndexService.deleteByOwner(userId);
+            files.forEach(searchIndexService::index);
+            logger.info("Migrated user {} from {} ({} files) in {} ms",
+                    userId, source, files.size(), System.currentTimeMillis() - started);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mongoTemplate.updateFirst(ours, new Update().unset("migratingTo").unset("migrationStarted"), UserPlacement.class);
+        } catch (Exception e) {
+            logger.warn("Migration of user {} from {} failed, will retry", userId, source, e);
+            mongoTemplate.updateFirst(ours, new Update().unset("migratingTo").unset("migrationStarted"), UserPlacement.class);
+        }
+    }
+
+    private boolean hasActiveDeletionJobs(String userId) {
+        return mongoTemplate.exists(Query.query(Criteria.where("ownerId").is(userId)
+                .and("status").in(DeletionJob.Status.PENDING, DeletionJob.Status.RUNNING)), DeletionJob.class);
+    }
+
+    // Uploads and delta PUTs accepted before the claim can still be streaming in on the source
+    private void awaitWritesDrained(String userId, ClusterNode source) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + writeDrainTimeoutMs;
+        while (true) {
+            HttpResponse<InputStream> response = get(source, "/internal/cluster/users/" + userId + "/writes");
+            Map<String, Object> body;
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IOException("Checking writes on " + source.getId() + " returned " + response.statusCode());
+                }
+                body = objectMapper.readValue(in, new TypeReference<Map<String, Object>>() { });
+            }
+            if (((Number) body.get("inFlight")).intValue() == 0) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Writes for user " + userId + " are still in flight on " + source.getId());
+            }
+            Thread.sleep(WRITE_POLL_MS);
+        }
+    }
+
+    private List<FileMetadata> copyFiles(String userId, ClusterNode source) throws IOException, InterruptedException {
+        HttpResponse<InputStream> listing = get(source, "/internal/cluster/users/" + userId + "/files");
+        if (listing.statusCode() != 200) {
+            listing.body().close();
+            throw new IOException("Listing files on " + source.getId() + " returned " + listing.statusCode());
+        }
+        List<FileMetadata> files;
+        try (InputStream body = listing.body()) {
+            files = objectMapper.readValue(body, new TypeReference<List<FileMetadata>>() { });
+        }
+
+        Files.createDirectories(fileStorageService.getUserDir(userId));
+        List<FileMetadata> copied = new ArrayList<>();
+        for (FileMetadata metadata : files) {
+            Path filePath = fileStorageService.resolveUploadPath(userId, metadata.getFilename());
+            long storedSize = metadata.getSize() + metadata.getEncryptionOverhead();
+            // Already copied by this claim before a restart; the source has taken no writes since
+            if (Files.exists(filePath) && Files.size(filePath) == storedSize) {
+                copied.add(metadata);
+                continue;
+            }
+            HttpResponse<InputStream> blob = get(source, "/internal/cluster/users/" + userId + "/blob?name="
+                    + URLEncoder.encode(metadata.getFilename(), StandardCharsets.UTF_8));
+            if (blob.statusCode() == 404) {
+                // Deleted by a background job on the source after the listing
+                blob.body().close();
+                continue;
+            }
+            if (blob.statusCode() != 200) {
+                blob.body().close();
+                throw new IOException("Fetching " + metadata.getFilename() + " from " + source.getId() + " returned " + blob.statusCode());
+            }
+            // Copied byte for byte: encrypted blobs stay valid because every node shares the master key
+            Path staging;
+            try (InputStream in = blob.body()) {
+                staging = fileStorageService.stage(filePath, userId, false, out -> copyThrottled(in, out));
+            }
+            // The throttled transfer runs unlocked; only the swap takes the path's stripe
+            Lock lock = fileStorageService.lockFor(filePath);
+            lock.lock();
+            try {
+                fileStorageService.commit(staging, filePath);
+            } finally {
+                lock.unlock();
+                Files.deleteIfExists(staging);
+            }
+            copied.add(metadata);
+        }
+        return copied;
+    }
+
+    private void copyThrottled(InputStream in, WritableByteChannel out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            try {
+                throttle.acquire(read);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Migration interrupted");
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while (chunk.hasRemaining()) {
+                out.write(chunk);
+            }
+        }
+    }
+
+    private HttpResponse<InputStream> get(ClusterNode node, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node.getUrl() + path))
+                .header(ClusterService.SECRET_HEADER, clusterService.getSecret())
+                .GET()
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    // Removes copies of users that now live elsewhere, once the new owner has had them for a while
+    private void cleanupOutgoing() throws IOException {
+        Path root = Paths.get(uploadDir);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        String self = clusterService.getNodeId();
+        long cutoff = System.currentTimeMillis() - cleanupGraceMs;
+        try (DirectoryStream<Path> userDirs = Files.newDirectoryStream(root, USER_DIR_PREFIX + "*")) {
+            for (Path userDir : userDirs) {
+                String userId = userDir.getFileName().toString().substring(USER_DIR_PREFIX.length());
+                UserPlacement placement = mongoTemplate.findById(userId, UserPlacement.class);
+                // Only directories whose user provably finished moving away are touched
+                if (placement == null || self.equals(placement.getNodeId()) || self.equals(placement.getMigratingTo())
+                        || placement.getMigratedDate() == null || placement.getMigratedDate().getTime() > cutoff) {
+                    continue;
+                }
+                removeUserDir(userDir);
+                searchIndexService.deleteByOwner(userId);
+                logger.info("Removed local copy of user {} now stored on {}", userId, placement.getNodeId());
+            }
+        }
+    }
+
+    private void removeUserDir(Path userDir) throws IOException {
+        try (Stream<Path> files = Files.list(userDir)) {
+            for (Path filePath : files.toList()) {
+                Lock lock = fileStorageService.lockFor(filePath);
+                lock.lock();
+                try {
+                    Files.deleteIfExists(filePath);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        Files.deleteIfExists(userDir);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.filestorage.cluster;
+
+import com.example.filestorage.model.ClusterNode;
+import com.example.filestorage.model.User;
+import com.example.filestorage.model.UserPlacement;
+import com.example.filestorage.repository.UserRepository;
+import com.example.filestorage.tracing.RequestTiming;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Runs after the security chain, so the caller is already authenticated when the owning node is looked up
+@Component
+public class ClusterRoutingFilter extends OncePerRequestFilter {
+
+    public static final String FORWARDED_HEADER = "X-Cluster-Forwarded-By";
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRoutingFilter.class);
+    private static final int MAX_CACHED_USERS = 100_000;
+
+    // Account and session endpoints only touch MongoDB, so any node can serve them
+    private static final Set<String> NODE_LOCAL_PATHS = Set.of("/", "/login", "/register", "/refresh", "/logout", "/change-password");
+
+    // Origin is dropped so the owning node does not add a second set of CORS headers
+    private static final Set<String> SKIPPED_REQUEST_HEADERS = Set.of(
+            "connection", "content-length", "expect", "host", "keep-alive", "origin", "te", "trailer",
+            "transfer-encoding", "upgrade");
+    private static final Set<String> SKIPPED_RESPONSE_HEADERS = Set.of(
+            "connection", "keep-alive", "te", "trailer", "transfer-encoding", "upgrade");
+
+    @Value("${cluster.routing:proxy}")
+    private String routing;
+
+    @Value("${cluster.proxy-timeout-ms:300000}")
+    private long proxyTimeoutMs;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private final Map<String, CachedUserId> userIds = new ConcurrentHashMap<>();
+
+    private record CachedUserId(String userId, long loadedNanos) {
+    }
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!clusterService.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI();
+        return NODE_LOCAL_PATHS.contains(path) || path.startsWith("/internal/") || path.startsWith("/actuator/")
+                || path.startsWith("/css/") || path.startsWith("/js/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof UserDetails userDetails)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        String userId = userIdFor(userDetails.getUsername());
+        if (userId == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        // Counted before the placement is read: a migration that sees no writes in flight after its
+        // claim has aged past the cache TTL knows every later write will see the claim and be refused
+        boolean write = !isRead(request);
+        if (write) {
+            clusterService.beginWrite(userId);
+        }
+        UserPlacement placement;
+        try {
+            placement = clusterService.cachedPlacementFor(userId);
+            if (clusterService.getNodeId().equals(placement.getNodeId())) {
+                // Files are being copied to another node; a write now could be left behind
+                if (placement.getMigratingTo() != null && write) {
+                    reject(response, 503, "Your files are being moved to another storage node, please retry shortly");
+                    return;
+                }
+                filterChain.doFilter(request, response);
+                return;
+            }
+        } finally {
+            if (write) {
+                clusterService.endWrite(userId);
+            }
+        }
+        route(request, response, placement);
+    }
+
+    private void route(HttpServletRequest request, HttpServletResponse response, UserPlacement placement) throws IOException {
+        // Placement changed while the request was in flight; one hop only, never a loop
+        if (request.getHeader(FORWARDED_HEADER) != null) {
+            reject(response, 503, "Your files are being moved to another storage node, please retry shortly");
+            return;
+        }
+        Optional<ClusterNode> target = clusterService.getMember(placement.getNodeId());
+        if (target.isEmpty()) {
+            reject(response, 503, "The storage node holding your files is unavailable");
+            return;
+        }
+
+        String query = request.getQueryString();
+        URI uri = URI.create(target.get().getUrl() + request.getRequestURI() + (query != null ? "?" + query : ""));
+        // API clients only: browsers drop Authorization when following a cross-origin redirect
+        if ("redirect".equals(routing)) {
+            response.setStatus(307);
+            response.setHeader("Location", uri.toString());
+            return;
+        }
+        proxy(request, response, uri);
+    }
+
+    // The id never changes for a username, but a deleted and re-registered account gets a new one
+    private String userIdFor(String username) {
+        long now = System.nanoTime();
+        CachedUserId cached = userIds.get(username);
+        if (cached != null && now - cached.loadedNanos() < TimeUnit.MILLISECONDS.toNanos(clusterService.getPlacementCacheMs())) {
+            return cached.userId();
+        }
+        Optional<User> user = userRepository.findByUsername(username);
+        if (user.isEmpty()) {
+            return null;
+        }
+        if (userIds.size() >= MAX_CACHED_USERS) {
+            userIds.clear();
+        }
+        userIds.put(username, new CachedUserId(user.get().getId(), now));
+        return user.get().getId();
+    }
+
+    private void proxy(HttpServletRequest request, HttpServletResponse response, URI uri) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(proxyTimeoutMs));
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (SKIPPED_REQUEST_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            for (String value : Collections.list(request.getHeaders(name))) {
+                builder.header(name, value);
+            }
+        }
+        builder.header(FORWARDED_HEADER, clusterService.getNodeId());
+        builder.header("X-Forwarded-For", request.getRemoteAddr());
+        builder.method(request.getMethod(), bodyOf(request));
+
+        HttpResponse<InputStream> upstream;
+        try (RequestTiming.Phase ignored = RequestTiming.start("proxy")) {
+            upstream = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while proxying to " + uri.getAuthority());
+        } catch (IOException e) {
+            logger.warn("Proxying {} {} to {} failed", request.getMethod(), request.getRequestURI(), uri.getAuthority(), e);
+            reject(response, 502, "The storage node holding your files did not respond");
+            return;
+        }
+
+        response.setStatus(upstream.statusCode());
+        upstream.headers().map().forEach((name, values) -> {
+            if (!SKIPPED_RESPONSE_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                values.forEach(value -> response.addHeader(name, value));
+            }
+        });
+        try (InputStream body = upstream.body()) {
+            body.transferTo(response.getOutputStream());
+        }
+    }
+
+    private HttpRequest.BodyPublisher bodyOf(HttpServletRequest request) throws IOException {
+        long length = request.getContentLengthLong();
+        boolean chunked = request.getHeader("Transfer-Encoding") != null;
+        if (length <= 0 && !chunked) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        // Streamed straight through; uploads are never buffered on the forwarding node
+        ServletInputStream in = request.getInputStream();
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> in);
+        return length > 0 ? HttpRequest.BodyPublishers.fromPublisher(publisher, length) : publisher;
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    private static void reject(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        if (status == 503) {
+            response.setHeader("Retry-After", "5");
+        }
+        response.setContentType("application/json");
+        response.getWriter().write("{\"message\":\"" + message + "\"}");
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.filestorage.cluster;
+
+import com.example.filestorage.model.ClusterNode;
+import com.example.filestorage.model.UserPlacement;
+import com.example.filestorage.repository.ClusterNodeRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class ClusterService {
+
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+    private static final Logger logger = LoggerFactory.getLogger(ClusterService.class);
+    private static final String USER_DIR_PREFIX = "user_";
+    private static final int MAX_CACHED_PLACEMENTS = 100_000;
+
+    @Value("${cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${cluster.node-url:}")
+    private String nodeUrl;
+
+    @Value("${cluster.secret:}")
+    private String secret;
+
+    @Value("${cluster.virtual-nodes:128}")
+    private int virtualNodes;
+
+    @Value("${cluster.heartbeat-interval-ms:5000}")
+    private long heartbeatIntervalMs;
+
+    @Value("${cluster.node-timeout-ms:30000}")
+    private long nodeTimeoutMs;
+
+    @Value("${cluster.placement-cache-ms:2000}")
+    private long placementCacheMs;
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Autowired
+    private ClusterNodeRepository clusterNodeRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private volatile ConsistentHashRing ring;
+    private volatile Map<String, ClusterNode> members = Map.of();
+    private ScheduledExecutorService heartbeatExecutor;
+    private final Map<String, CachedPlacement> placementCache = new ConcurrentHashMap<>();
+    // Writes being served locally per user; the node taking a user over waits for this to drain
+    private final Map<String, Integer> inFlightWrites = new ConcurrentHashMap<>();
+
+    private record CachedPlacement(UserPlacement placement, long loadedNanos) {
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (nodeId.isBlank() || nodeUrl.isBlank() || secret.isBlank()) {
+            throw new IllegalStateException("cluster.enabled requires cluster.node-id, cluster.node-url and cluster.secret");
+        }
+        ClusterNode self = clusterNodeRepository.findById(nodeId).orElseGet(ClusterNode::new);
+        if (self.getId() == null) {
+            self.setId(nodeId);
+            self.setJoinedDate(new Date());
+        }
+        self.setUrl(nodeUrl);
+        self.setLastHeartbeat(new Date());
+        clusterNodeRepository.save(self);
+
+        claimLocalUsers();
+        refreshMembership();
+
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeatQuietly, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        // The node record stays; it simply drops out of the ring once its heartbeat goes stale
+        heartbeatExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public Optional<ClusterNode> getMember(String id) {
+        return Optional.ofNullable(members.get(id));
+    }
+
+    public Collection<ClusterNode> getMembers() {
+        return members.values();
+    }
+
+    public String ringOwner(String userId) {
+        return ring.owner(userId);
+    }
+
+    public long getPlacementCacheMs() {
+        return placementCacheMs;
+    }
+
+    // Saves a MongoDB round trip per request. An entry is at most placement-cache-ms old, which is
+    // why a migration waits at least that long after claiming a user before copying
+    public UserPlacement cachedPlacementFor(String userId) {
+        long now = System.nanoTime();
+        CachedPlacement cached = placementCache.get(userId);
+        if (cached != null && now - cached.loadedNanos() < TimeUnit.MILLISECONDS.toNanos(placementCacheMs)) {
+            return cached.placement();
+        }
+        // Stamped before the read, so the entry never looks fresher than the data it holds
+        UserPlacement placement = placementFor(userId);
+        if (placementCache.size() >= MAX_CACHED_PLACEMENTS) {
+            placementCache.clear();
+        }
+        placementCache.put(userId, new CachedPlacement(placement, now));
+        return placement;
+    }
+
+    public void beginWrite(String userId) {
+        inFlightWrites.merge(userId, 1, Integer::sum);
+    }
+
+    public void endWrite(String userId) {
+        inFlightWrites.computeIfPresent(userId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public int getInFlightWrites(String userId) {
+        return inFlightWrites.getOrDefault(userId, 0);
+    }
+
+    // Users are pinned to the ring owner at the time they are first seen
+    public UserPlacement placementFor(String userId) {
+        UserPlacement placement = mongoTemplate.findById(userId, UserPlacement.class);
+        if (placement != null) {
+            return placement;
+        }
+        return mongoTemplate.findAndModify(Query.query(Criteria.where("id").is(userId)),
+                new Update().setOnInsert("nodeId", ringOwner(userId)),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                UserPlacement.class);
+    }
+
+    // Never creates a placement, so background jobs cannot pin a user to the wrong node
+    public boolean isLocal(String userId) {
+        if (!enabled) {
+            return true;
+        }
+        UserPlacement placement = mongoTemplate.findById(userId, UserPlacement.class);
+        return placement != null && nodeId.equals(placement.getNodeId());
+    }
+
+    public boolean isTrusted(String presentedSecret) {
+        return enabled && presentedSecret != null && MessageDigest.isEqual(
+                presentedSecret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Data already on this disk (e.g. from before cluster mode) stays here until the ring moves it
+    private void claimLocalUsers() throws IOException {
+        Path root = Paths.get(uploadDir);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (DirectoryStream<Path> userDirs = Files.newDirectoryStream(root, USER_DIR_PREFIX + "*")) {
+            for (Path userDir : userDirs) {
+                String userId = userDir.getFileName().toString().substring(USER_DIR_PREFIX.length());
+                mongoTemplate.upsert(Query.query(Criteria.where("id").is(userId)),
+                        new Update().setOnInsert("nodeId", nodeId), UserPlacement.class);
+            }
+        }
+    }
+
+    private void heartbeatQuietly() {
+        try {
+            mongoTemplate.upsert(Query.query(Criteria.where("id").is(nodeId)),
+                    new Update().set("url", nodeUrl).set("lastHeartbeat", new Date()).setOnInsert("joinedDate", new Date()),
+                    ClusterNode.class);
+            refreshMembership();
+        } catch (Exception e) {
+            logger.warn("Cluster heartbeat failed", e);
+        }
+    }
+
+    private void refreshMembership() {
+        Date cutoff = new Date(System.currentTimeMillis() - nodeTimeoutMs);
+        Map<String, ClusterNode> live = new LinkedHashMap<>();
+        for (ClusterNode node : clusterNodeRepository.findByLastHeartbeatAfter(cutoff)) {
+            live.put(node.getId(), node);
+        }
+        members = live;
+
+        ConsistentHashRing current = ring;
+        if (current == null || !current.getNodeIds().equals(live.keySet())) {
+            logger.info("Cluster membership is now {}", live.keySet());
+            ring = new ConsistentHashRing(live.keySet(), virtualNodes);
+        }
+    }
+}
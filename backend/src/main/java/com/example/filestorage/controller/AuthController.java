@@ -4,7 +4,7 @@ import com.example.filestorage.model.RefreshToken;
 import com.example.filestorage.model.User;
 import com.example.filestorage.repository.UserRepository;
 import com.example.filestorage.security.JwtUtil;
-import com.example.filestorage.service.FileStorageService;
+import com.example.filestorage.service.DeletionJobService;
 import com.example.filestorage.service.RefreshTokenService;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletResponse;
@@ -32,7 +32,7 @@ public class AuthController {
     private PasswordEncoder passwordEncoder;
 
     @Autowired
-    private FileStorageService fileStorageService;
+    private DeletionJobService deletionJobService;
 
     @Autowired
     private AuthenticationManager authenticationManager;
@@ -157,23 +157,22 @@ public class AuthController {
     }
 
     @DeleteMapping("/delete-account")
-    public ResponseEntity<?> deleteAccount(@AuthenticationPrincipal UserDetails userDetails, HttpServletResponse response) {
-        try {
-            User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
-            fileStorageService.deleteAllFilesForUser(user.getId());
-            refreshTokenService.deleteByUsername(user.getUsername());
-            userRepository.delete(user);
-            
-            // Clear refresh token cookie
-            Cookie refreshCookie = new Cookie("refreshToken", null);
-            refreshCookie.setHttpOnly(true);
-            refreshCookie.setPath("/");
-            refreshCookie.setMaxAge(0);
-            response.addCookie(refreshCookie);
-            
-            return ResponseEntity.ok(Map.of("message", "Account deleted successfully"));
-        } catch (IOException e) {
-            return ResponseEntity.status(500).body(Map.of("message", "Failed to delete account data"));
-        }
+    public ResponseEntity<?> deleteAccount(@AuthenticationPrincipal UserDetails userDetails, HttpServletResponse response) throws IOException {
+        User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
+
+        // Files are tombstoned now and removed from disk by a background job. The job is not returned:
+        // its progress is only visible to its owner, and the owner no longer exists once this returns
+        deletionJobService.submitAccountDeletion(user.getId());
+        refreshTokenService.deleteByUsername(user.getUsername());
+        userRepository.delete(user);
+
+        // Clear refresh token cookie
+        Cookie refreshCookie = new Cookie("refreshToken", null);
+        refreshCookie.setHttpOnly(true);
+        refreshCookie.setPath("/");
+        refreshCookie.setMaxAge(0);
+        response.addCookie(refreshCookie);
+
+        return ResponseEntity.accepted().body(Map.of("message", "Account deleted successfully"));
     }
 }
@@ -0,0 +1,83 @@
+package com.example.filestorage.controller;
+
+import com.example.filestorage.cluster.ClusterService;
+import com.example.filestorage.service.FileStorageService;
+import com.example.filestorage.service.MetadataWriteBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+// Node-to-node endpoints; authenticated by the shared cluster secret instead of a user token
+@RestController
+public class ClusterController {
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private MetadataWriteBuffer metadataWriteBuffer;
+
+    @GetMapping("/internal/cluster/nodes")
+    public ResponseEntity<?> getNodes(@RequestHeader(value = ClusterService.SECRET_HEADER, required = false) String secret) {
+        if (!clusterService.isTrusted(secret)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("nodeId", clusterService.getNodeId(), "members", clusterService.getMembers()));
+    }
+
+    @GetMapping("/internal/cluster/users/{ownerId}/files")
+    public ResponseEntity<?> getFiles(@PathVariable String ownerId,
+                                      @RequestHeader(value = ClusterService.SECRET_HEADER, required = false) String secret) throws IOException {
+        if (!clusterService.isTrusted(secret)) {
+            return ResponseEntity.notFound().build();
+        }
+        // Buffered rows must reach Mongo before the new owner takes over
+        metadataWriteBuffer.flush();
+        return ResponseEntity.ok(fileStorageService.getFilesByOwner(ownerId));
+    }
+
+    // Polled by the node taking a user over until writes accepted before its claim have finished
+    @GetMapping("/internal/cluster/users/{ownerId}/writes")
+    public ResponseEntity<?> getInFlightWrites(@PathVariable String ownerId,
+                                               @RequestHeader(value = ClusterService.SECRET_HEADER, required = false) String secret) {
+        if (!clusterService.isTrusted(secret)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("inFlight", clusterService.getInFlightWrites(ownerId)));
+    }
+
+    // Stored bytes as they are on disk, still encrypted if encryption at rest is on
+    @GetMapping("/internal/cluster/users/{ownerId}/blob")
+    public ResponseEntity<?> getBlob(@PathVariable String ownerId, @RequestParam("name") String name,
+                                     @RequestHeader(value = ClusterService.SECRET_HEADER, required = false) String secret) {
+        if (!clusterService.isTrusted(secret)) {
+            return ResponseEntity.notFound().build();
+        }
+        Path filePath;
+        try {
+            filePath = fileStorageService.resolveUploadPath(ownerId, name);
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+        if (!Files.isRegularFile(filePath)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(new FileSystemResource(filePath));
+    }
+}
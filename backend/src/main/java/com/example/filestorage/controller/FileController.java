@@ -1,13 +1,19 @@
 package com.example.filestorage.controller;
 
+import com.example.filestorage.model.DeletionJob;
 import com.example.filestorage.model.FileMetadata;
 import com.example.filestorage.model.User;
 import com.example.filestorage.repository.UserRepository;
 import com.example.filestorage.security.FileSecurityService;
+import com.example.filestorage.service.DeletionJobService;
+import com.example.filestorage.service.DeltaSyncService;
 import com.example.filestorage.service.FileStorageService;
+import com.example.filestorage.service.StorageMetrics;
+import com.example.filestorage.service.TransferScheduler;
+import com.example.filestorage.tracing.RequestTiming;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -16,9 +22,11 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +43,18 @@ public class FileController {
     @Autowired
     private FileSecurityService fileSecurityService;
 
+    @Autowired
+    private DeletionJobService deletionJobService;
+
+    @Autowired
+    private DeltaSyncService deltaSyncService;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @Autowired
+    private StorageMetrics storageMetrics;
+
     @GetMapping("/files")
     public ResponseEntity<List<FileMetadata>> getFiles(@AuthenticationPrincipal UserDetails userDetails) {
         User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
@@ -54,15 +74,14 @@ public class FileController {
     }
 
     @GetMapping("/download/{id}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String id, @AuthenticationPrincipal UserDetails userDetails) throws java.io.FileNotFoundException, java.net.MalformedURLException {
+    public ResponseEntity<Resource> downloadFile(@PathVariable String id, @AuthenticationPrincipal UserDetails userDetails) throws java.io.FileNotFoundException {
         FileMetadata metadata = fileStorageService.getFile(id).orElseThrow();
         
         if (!fileSecurityService.isOwner(metadata, userDetails)) {
             return ResponseEntity.status(403).build();
         }
 
-        Path filePath = fileStorageService.getFilePath(metadata.getFilename(), metadata.getOwnerId());
-        Resource resource = new UrlResource(filePath.toUri());
+        Resource resource = loadResource(metadata);
 
         if (!resource.exists() || !resource.isReadable()) {
             throw new java.io.FileNotFoundException("File not found " + metadata.getFilename());
@@ -75,15 +94,14 @@ public class FileController {
     }
 
     @GetMapping("/view/{id}")
-    public ResponseEntity<Resource> viewFile(@PathVariable String id, @AuthenticationPrincipal UserDetails userDetails) throws java.io.FileNotFoundException, java.net.MalformedURLException {
+    public ResponseEntity<Resource> viewFile(@PathVariable String id, @AuthenticationPrincipal UserDetails userDetails) throws java.io.FileNotFoundException {
         FileMetadata metadata = fileStorageService.getFile(id).orElseThrow();
 
         if (!fileSecurityService.isOwner(metadata, userDetails)) {
             return ResponseEntity.status(403).build();
         }
 
-        Path filePath = fileStorageService.getFilePath(metadata.getFilename(), metadata.getOwnerId());
-        Resource resource = new UrlResource(filePath.toUri());
+        Resource resource = loadResource(metadata);
 
         if (!resource.exists() || !resource.isReadable()) {
             throw new java.io.FileNotFoundException("File not found " + metadata.getFilename());
@@ -107,6 +125,106 @@ public class FileController {
         return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
     }
 
+    @PostMapping("/delete")
+    public ResponseEntity<?> deleteFiles(@RequestBody Map<String, List<String>> payload, @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        List<String> ids = payload.get("ids");
+        if (ids == null || ids.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("message", "No file ids provided"));
+        }
+
+        User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
+        DeletionJob job = deletionJobService.submitBulkDeletion(user.getId(), ids);
+        return ResponseEntity.accepted().body(Map.of("message", "Deletion scheduled", "jobId", job.getId()));
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getDeletionJob(@PathVariable String id, @AuthenticationPrincipal UserDetails userDetails) {
+        DeletionJob job = deletionJobService.getJob(id).orElseThrow();
+        User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
+
+        if (!job.getOwnerId().equals(user.getId())) {
+            return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
+        }
+
+        return ResponseEntity.ok(Map.of(
+                "id", job.getId(),
+                "type", job.getType(),
+                "status", job.getStatus(),
+                "totalFiles", job.getTotalFiles(),
+                "deletedFiles", job.getDeletedFiles(),
+                "failedFiles", job.getFailedFiles()
+        ));
+    }
+
+    @GetMapping("/files/{id}/signature")
+    public ResponseEntity<?> getSignature(@PathVariable String id, @RequestParam(required = false) Integer blockSize,
+                                          @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        FileMetadata metadata = fileStorageService.getFile(id).orElseThrow();
+
+        if (!fileSecurityService.isOwner(metadata, userDetails)) {
+            return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
+        }
+
+        int size = blockSize != null ? blockSize : deltaSyncService.defaultBlockSize(metadata.getSize());
+        try {
+            deltaSyncService.checkSignatureRequest(metadata.getSize(), size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+        // Streamed block by block; a list of every block would not fit in memory for large files
+        StreamingResponseBody body = out -> deltaSyncService.writeSignature(metadata, size, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @PutMapping(value = "/files/{id}/delta", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> applyDelta(@PathVariable String id, @RequestParam(required = false) String sha256,
+                                        InputStream body, @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        FileMetadata metadata = fileStorageService.getFile(id).orElseThrow();
+
+        if (!fileSecurityService.isOwner(metadata, userDetails)) {
+            return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
+        }
+
+        try {
+            FileMetadata updated = deltaSyncService.applyDelta(metadata, body, sha256);
+            return ResponseEntity.ok(Map.of("message", "File updated successfully", "size", updated.getSize()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/transfers")
+    public ResponseEntity<Map<String, Object>> getTransferAllocation(@AuthenticationPrincipal UserDetails userDetails) {
+        User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
+        return ResponseEntity.ok(transferScheduler.getAllocation(user.getId()));
+    }
+
+    private Resource loadResource(FileMetadata metadata) {
+        Path filePath = fileStorageService.getFilePath(metadata.getFilename(), metadata.getOwnerId());
+        // Spring still serves Range requests from this resource, the stream just gets metered and paced.
+        // Ranges are applied with skip(), which on encrypted files seeks to the first segment needed.
+        return new FileSystemResource(filePath) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                InputStream in = RequestTiming.timed(fileStorageService.openStream(metadata), "disk-read");
+                return storageMetrics.countDownload(transferScheduler.throttle(in, metadata.getOwnerId()));
+            }
+
+            @Override
+            public ReadableByteChannel readableChannel() throws IOException {
+                return fileStorageService.openChannel(metadata);
+            }
+
+            // The plaintext size, which for encrypted files differs from the size on disk
+            @Override
+            public long contentLength() {
+                return metadata.getSize();
+            }
+        };
+    }
+
     @GetMapping("/usage")
     public ResponseEntity<Map<String, Long>> getStorageUsage(@AuthenticationPrincipal UserDetails userDetails) {
         User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
@@ -0,0 +1,45 @@
+package com.example.filestorage.controller;
+
+import com.example.filestorage.model.User;
+import com.example.filestorage.repository.UserRepository;
+import com.example.filestorage.service.SearchIndexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Map;
+
+@RestController
+public class SearchController {
+
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @GetMapping("/search")
+    public ResponseEntity<?> search(@RequestParam("q") String query,
+                                    @RequestParam(defaultValue = "0") int page,
+                                    @RequestParam(defaultValue = "50") int size,
+                                    @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        if (!searchIndexService.isEnabled()) {
+            return ResponseEntity.status(503).body(Map.of("message", "Search is disabled"));
+        }
+        if (page < 0 || size < 1 || size > 200) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Page must be >= 0 and size between 1 and 200"));
+        }
+
+        User user = userRepository.findByUsername(userDetails.getUsername()).orElseThrow();
+        try {
+            return ResponseEntity.ok(searchIndexService.search(user.getId(), query, page, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+}
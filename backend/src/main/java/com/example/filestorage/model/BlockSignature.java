@@ -0,0 +1,12 @@
+package com.example.filestorage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BlockSignature {
+    private long index;
+    private long weak;
+    private String strong;
+}
@@ -0,0 +1,20 @@
+package com.example.filestorage.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+@Data
+@Document(collection = "cluster_nodes")
+public class ClusterNode {
+    @Id
+    private String id;
+    // Base URL other nodes use to reach this one, e.g. http://10.0.0.12:8080
+    private String url;
+    @Indexed
+    private Date lastHeartbeat;
+    private Date joinedDate;
+}
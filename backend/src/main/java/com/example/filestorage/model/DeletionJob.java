@@ -0,0 +1,32 @@
+package com.example.filestorage.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+@Data
+@Document(collection = "deletion_jobs")
+public class DeletionJob {
+
+    public enum Type { ACCOUNT, BULK }
+
+    public enum Status { PENDING, RUNNING, COMPLETED, FAILED }
+
+    @Id
+    private String id;
+    @Indexed
+    private String ownerId;
+    private Type type;
+    private Status status;
+    private List<String> fileIds;
+    private long totalFiles;
+    private long deletedFiles;
+    private long failedFiles;
+    private String error;
+    private Date createdDate;
+    private Date completedDate;
+}
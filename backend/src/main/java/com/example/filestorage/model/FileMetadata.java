@@ -16,6 +16,10 @@ public class FileMetadata {
     private long size;
     private Date uploadDate;
     private String ownerId;
+    private boolean deleted;
+    private boolean encrypted;
+    // Bytes on disk beyond the plaintext size: encryption header plus one tag per segment
+    private long encryptionOverhead;
 
     public String getDisplaySize() {
         double sizeInMb = (double) size / (1024 * 1024);
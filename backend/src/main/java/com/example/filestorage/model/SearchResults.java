@@ -0,0 +1,15 @@
+package com.example.filestorage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SearchResults {
+    private long totalHits;
+    private int page;
+    private int size;
+    private List<FileMetadata> files;
+}
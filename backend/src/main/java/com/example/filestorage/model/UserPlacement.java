@@ -0,0 +1,21 @@
+package com.example.filestorage.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+// Where a user's blobs currently live; the hash ring only says where they should live
+@Data
+@Document(collection = "user_placements")
+public class UserPlacement {
+    @Id
+    private String id;
+    @Indexed
+    private String nodeId;
+    private String migratingTo;
+    private Date migrationStarted;
+    private Date migratedDate;
+}
@@ -0,0 +1,11 @@
+package com.example.filestorage.repository;
+
+import com.example.filestorage.model.ClusterNode;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Date;
+import java.util.List;
+
+public interface ClusterNodeRepository extends MongoRepository<ClusterNode, String> {
+    List<ClusterNode> findByLastHeartbeatAfter(Date cutoff);
+}
@@ -0,0 +1,11 @@
+package com.example.filestorage.repository;
+
+import com.example.filestorage.model.DeletionJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface DeletionJobRepository extends MongoRepository<DeletionJob, String> {
+    List<DeletionJob> findByStatusIn(Collection<DeletionJob.Status> statuses);
+}
@@ -2,9 +2,21 @@ package com.example.filestorage.repository;
 
 import com.example.filestorage.model.FileMetadata;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface FileMetadataRepository extends MongoRepository<FileMetadata, String> {
     List<FileMetadata> findByOwnerId(String ownerId);
+
+    // Excludes files tombstoned by a pending deletion job
+    @Query("{ 'ownerId': ?0, 'deleted': { $ne: true } }")
+    List<FileMetadata> findActiveByOwnerId(String ownerId);
+
+    @Query("{ 'ownerId': ?0, 'filename': ?1, 'deleted': { $ne: true } }")
+    List<FileMetadata> findActiveByOwnerIdAndFilename(String ownerId, String filename);
+
+    @Query(value = "{ 'ownerId': ?0, 'filename': { $in: ?1 }, 'deleted': { $ne: true } }", fields = "{ 'filename': 1 }")
+    List<FileMetadata> findActiveByOwnerIdAndFilenameIn(String ownerId, Collection<String> filenames);
 }
@@ -1,5 +1,8 @@
 package com.example.filestorage.security;
 
+import com.example.filestorage.service.StorageMetrics;
+import com.example.filestorage.tracing.RequestTiming;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,9 +26,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     @Autowired
     private CustomUserDetailsService userDetailsService;
 
+    @Autowired
+    private StorageMetrics storageMetrics;
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
+        Timer.Sample authTime = Timer.start();
         
         String authHeader = request.getHeader("Authorization");
         String token = null;
@@ -33,7 +40,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             token = authHeader.substring(7);
-            try {
+            try (RequestTiming.Phase ignored = RequestTiming.start("jwt")) {
                 username = jwtUtil.getUsernameFromToken(token);
             } catch (Exception e) {
                 // Invalid token
@@ -41,9 +48,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+            UserDetails userDetails;
+            try (RequestTiming.Phase ignored = RequestTiming.start("user-details")) {
+                userDetails = userDetailsService.loadUserByUsername(username);
+            }
             
-            if (jwtUtil.validateToken(token)) {
+            boolean valid;
+            try (RequestTiming.Phase ignored = RequestTiming.start("jwt")) {
+                valid = jwtUtil.validateToken(token);
+            }
+            if (valid) {
                 UsernamePasswordAuthenticationToken authToken = 
                     new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
@@ -51,6 +65,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             }
         }
 
+        authTime.stop(storageMetrics.authFilterTimer());
         filterChain.doFilter(request, response);
     }
 }
@@ -0,0 +1,308 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.cluster.ClusterService;
+import com.example.filestorage.model.DeletionJob;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.repository.DeletionJobRepository;
+import com.example.filestorage.repository.FileMetadataRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+@Service
+public class DeletionJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeletionJobService.class);
+
+    @Value("${file.deletion.parallelism:4}")
+    private int parallelism;
+
+    @Value("${file.deletion.batch-size:500}")
+    private int batchSize;
+
+    @Value("${file.deletion.concurrent-jobs:4}")
+    private int concurrentJobs;
+
+    @Autowired
+    private DeletionJobRepository deletionJobRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    @Autowired
+    private MetadataWriteBuffer metadataWriteBuffer;
+
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    private ExecutorService jobExecutor;
+    private ExecutorService deleteExecutor;
+
+    @PostConstruct
+    public void init() {
+        // Several job threads so one large account does not hold up everyone else's deletions;
+        // they all feed the same bounded delete pool, so disk concurrency stays capped
+        jobExecutor = Executors.newFixedThreadPool(concurrentJobs, r -> {
+            Thread thread = new Thread(r, "deletion-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounded queue + caller-runs keeps the job thread from outrunning the disk
+        deleteExecutor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+        deleteExecutor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingJobs() {
+        List<DeletionJob> unfinished = deletionJobRepository.findByStatusIn(
+                List.of(DeletionJob.Status.PENDING, DeletionJob.Status.RUNNING));
+        for (DeletionJob job : unfinished) {
+            // In cluster mode the node that holds the owner's files finishes the job
+            if (!clusterService.isLocal(job.getOwnerId())) {
+                continue;
+            }
+            logger.info("Resuming deletion job {} for owner {}", job.getId(), job.getOwnerId());
+            jobExecutor.submit(() -> runJob(job));
+        }
+    }
+
+    public DeletionJob submitAccountDeletion(String ownerId) throws IOException {
+        metadataWriteBuffer.flush();
+        DeletionJob job = newJob(ownerId, DeletionJob.Type.ACCOUNT, null);
+        tombstone(Criteria.where("ownerId").is(ownerId));
+        searchIndexService.deleteByOwner(ownerId);
+        return enqueue(job);
+    }
+
+    public DeletionJob submitBulkDeletion(String ownerId, List<String> fileIds) throws IOException {
+        metadataWriteBuffer.flush();
+        // Ids that are not the caller's, do not exist or are already pending deletion are dropped
+        Query owned = Query.query(Criteria.where("ownerId").is(ownerId).and("id").in(fileIds).and("deleted").ne(true));
+        owned.fields().include("id");
+        List<String> ownedIds = mongoTemplate.find(owned, FileMetadata.class).stream()
+                .map(FileMetadata::getId)
+                .toList();
+
+        DeletionJob job = newJob(ownerId, DeletionJob.Type.BULK, ownedIds);
+        tombstone(Criteria.where("ownerId").is(ownerId).and("id").in(ownedIds));
+        searchIndexService.deleteAll(ownerId, ownedIds);
+        return enqueue(job);
+    }
+
+    public Optional<DeletionJob> getJob(String id) {
+        return deletionJobRepository.findById(id);
+    }
+
+    private DeletionJob newJob(String ownerId, DeletionJob.Type type, List<String> fileIds) {
+        DeletionJob job = new DeletionJob();
+        job.setOwnerId(ownerId);
+        job.setType(type);
+        job.setStatus(DeletionJob.Status.PENDING);
+        job.setFileIds(fileIds);
+        job.setTotalFiles(fileIds != null ? fileIds.size() : 0);
+        job.setCreatedDate(new Date());
+        return deletionJobRepository.save(job);
+    }
+
+    private DeletionJob enqueue(DeletionJob job) {
+        jobExecutor.submit(() -> runJob(job));
+        return job;
+    }
+
+    private void tombstone(Criteria criteria) {
+        mongoTemplate.updateMulti(Query.query(criteria), Update.update("deleted", true), FileMetadata.class);
+    }
+
+    private void runJob(DeletionJob job) {
+        job.setStatus(DeletionJob.Status.RUNNING);
+        deletionJobRepository.save(job);
+        try {
+            if (job.getType() == DeletionJob.Type.ACCOUNT) {
+                runAccountDeletion(job);
+            } else {
+                runBulkDeletion(job);
+            }
+            job.setStatus(DeletionJob.Status.COMPLETED);
+        } catch (OwnerMovedException e) {
+            // Left pending for the node that now holds the owner's files, which resumes it when it starts
+            logger.warn("Owner {} of deletion job {} moved to another node, pausing the job", job.getOwnerId(), job.getId());
+            job.setStatus(DeletionJob.Status.PENDING);
+            deletionJobRepository.save(job);
+            return;
+        } catch (Exception e) {
+            logger.error("Deletion job {} failed", job.getId(), e);
+            job.setStatus(DeletionJob.Status.FAILED);
+            job.setError(e.getMessage());
+        }
+        job.setCompletedDate(new Date());
+        deletionJobRepository.save(job);
+    }
+
+    private void runAccountDeletion(DeletionJob job) throws IOException {
+        countRemaining(job, Criteria.where("ownerId").is(job.getOwnerId()));
+
+        // Page by id so rows whose blob could not be removed are not revisited
+        String lastId = null;
+        while (true) {
+            Criteria criteria = Criteria.where("ownerId").is(job.getOwnerId());
+            if (lastId != null) {
+                criteria = criteria.and("id").gt(lastId);
+            }
+            Query query = Query.query(criteria).with(Sort.by("id")).limit(batchSize);
+            List<FileMetadata> batch = mongoTemplate.find(query, FileMetadata.class);
+            if (batch.isEmpty()) {
+                break;
+            }
+            checkStillLocal(job);
+            deleteBatch(job, batch);
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+
+        // Sweep anything left in the user directory that had no metadata
+        checkStillLocal(job);
+        Path userDir = fileStorageService.getUserDir(job.getOwnerId());
+        if (Files.exists(userDir)) {
+            try (var stream = Files.walk(userDir)) {
+                stream.sorted(Comparator.reverseOrder())
+                      .forEach(path -> {
+                          try {
+                              Files.deleteIfExists(path);
+                          } catch (IOException e) {
+                              logger.warn("Failed to delete {}", path, e);
+                          }
+                      });
+            }
+        }
+    }
+
+    // Placement is re-read before every batch: once a migration has moved the owner, their files live on
+    // the other node, and removing the rows from here would leave those copies behind as orphans
+    private void checkStillLocal(DeletionJob job) {
+        if (!clusterService.isLocal(job.getOwnerId())) {
+            throw new OwnerMovedException();
+        }
+    }
+
+    private static class OwnerMovedException extends RuntimeException {
+    }
+
+    private void runBulkDeletion(DeletionJob job) {
+        List<String> fileIds = job.getFileIds();
+        countRemaining(job, Criteria.where("ownerId").is(job.getOwnerId()).and("id").in(fileIds));
+
+        for (int start = 0; start < fileIds.size(); start += batchSize) {
+            List<String> chunk = fileIds.subList(start, Math.min(start + batchSize, fileIds.size()));
+            Query query = Query.query(Criteria.where("ownerId").is(job.getOwnerId()).and("id").in(chunk));
+            List<FileMetadata> batch = mongoTemplate.find(query, FileMetadata.class);
+            if (!batch.isEmpty()) {
+                checkStillLocal(job);
+                deleteBatch(job, batch);
+            }
+        }
+    }
+
+    // Rows removed since submission (single deletes, an earlier run of this job) are not counted twice,
+    // and rows that failed before are retried, so deleted + failed adds up to the total at the end
+    private void countRemaining(DeletionJob job, Criteria criteria) {
+        long remaining = mongoTemplate.count(Query.query(criteria), FileMetadata.class);
+        job.setTotalFiles(job.getDeletedFiles() + remaining);
+        job.setFailedFiles(0);
+        deletionJobRepository.save(job);
+    }
+
+    private void deleteBatch(DeletionJob job, List<FileMetadata> batch) {
+        // A name re-uploaded since the tombstone now belongs to the new file, so only the row goes
+        Set<String> replaced = fileMetadataRepository.findActiveByOwnerIdAndFilenameIn(job.getOwnerId(),
+                        batch.stream().map(FileMetadata::getFilename).collect(Collectors.toSet()))
+                .stream()
+                .map(FileMetadata::getFilename)
+                .collect(Collectors.toSet());
+
+        List<CompletableFuture<String>> futures = new ArrayList<>(batch.size());
+        for (FileMetadata metadata : batch) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                Path filePath = fileStorageService.getFilePath(metadata.getFilename(), metadata.getOwnerId());
+                Lock lock = fileStorageService.lockFor(filePath);
+                lock.lock();
+                try {
+                    if (!replaced.contains(metadata.getFilename())) {
+                        Files.deleteIfExists(filePath);
+                    }
+                    return metadata.getId();
+                } catch (IOException e) {
+                    logger.warn("Failed to delete {}", filePath, e);
+                    return null;
+                } finally {
+                    lock.unlock();
+                }
+            }, deleteExecutor));
+        }
+
+        List<Query> removals = new ArrayList<>(batch.size());
+        long failed = 0;
+        for (CompletableFuture<String> future : futures) {
+            String deletedId = future.join();
+            if (deletedId != null) {
+                removals.add(Query.query(Criteria.where("id").is(deletedId)));
+            } else {
+                failed++;
+            }
+        }
+
+        // Rows whose blob survived stay tombstoned so they can be retried later
+        if (!removals.isEmpty()) {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileMetadata.class)
+                    .remove(removals)
+                    .execute();
+        }
+
+        job.setDeletedFiles(job.getDeletedFiles() + removals.size());
+        job.setFailedFiles(job.getFailedFiles() + failed);
+        deletionJobRepository.save(job);
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.model.BlockSignature;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.repository.FileMetadataRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * rsync-style delta sync against fixed-size blocks of a stored file. The weak checksum is rsync's,
+ * but the signature (JSON, MD5 strong sums) and the delta encoding are this service's own.
+ *
+ * A delta is a big-endian binary stream: an int block size, followed by ops.
+ * {@code 1, int startBlock, int blockCount} copies blocks of the current file,
+ * {@code 2, int length, bytes} appends literal data, and {@code 0} ends the delta.
+ */
+@Service
+public class DeltaSyncService {
+
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+    // Caps the signature at roughly 100 MB of JSON however small the requested blocks are
+    public static final long MAX_SIGNATURE_BLOCKS = 1 << 20;
+
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_DATA = 2;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    @Autowired
+    private MetadataWriteBuffer metadataWriteBuffer;
+
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    @Autowired
+    private FileEncryptionService fileEncryptionService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private StorageMetrics storageMetrics;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    public interface SignatureSink {
+        void accept(BlockSignature block) throws IOException;
+    }
+
+    // Same heuristic as rsync: roughly sqrt(size), so the signature grows slowly with the file
+    public int defaultBlockSize(long fileSize) {
+        long blockSize = ((long) Math.sqrt(fileSize) + 7) & ~7L;
+        blockSize = Math.max(2048, Math.min(1024 * 1024, blockSize));
+        // Very large files need bigger blocks to stay under the block cap
+        long minimum = ((fileSize + MAX_SIGNATURE_BLOCKS - 1) / MAX_SIGNATURE_BLOCKS + 7) & ~7L;
+        return (int) Math.min(MAX_BLOCK_SIZE, Math.max(blockSize, minimum));
+    }
+
+    public void checkSignatureRequest(long fileSize, int blockSize) {
+        checkBlockSize(blockSize);
+        if ((fileSize + blockSize - 1) / blockSize > MAX_SIGNATURE_BLOCKS) {
+            throw new IllegalArgumentException("Block size too small for this file, use at least "
+                    + ((fileSize + MAX_SIGNATURE_BLOCKS - 1) / MAX_SIGNATURE_BLOCKS));
+        }
+    }
+
+    // Streams the signature as JSON; call checkSignatureRequest first, errors cannot change the status once this starts
+    public void writeSignature(FileMetadata metadata, int blockSize, OutputStream out) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("fileId", metadata.getId());
+            json.writeNumberField("size", metadata.getSize());
+            json.writeNumberField("blockSize", blockSize);
+            json.writeArrayFieldStart("blocks");
+            computeSignature(metadata, blockSize, block -> {
+                json.writeStartObject();
+                json.writeNumberField("index", block.getIndex());
+                json.writeNumberField("weak", block.getWeak());
+                json.writeStringField("strong", block.getStrong());
+                json.writeEndObject();
+            });
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    public void computeSignature(FileMetadata metadata, int blockSize, SignatureSink sink) throws IOException {
+        checkSignatureRequest(metadata.getSize(), blockSize);
+        MessageDigest md5 = digest("MD5");
+        HexFormat hex = HexFormat.of();
+
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        try (SeekableByteChannel in = fileStorageService.openChannel(metadata)) {
+            long index = 0;
+            while (true) {
+                int length = readBlock(in, buffer);
+                if (length == 0) {
+                    break;
+                }
+                md5.update(buffer.array(), 0, length);
+                sink.accept(new BlockSignature(index++, weakChecksum(buffer.array(), 0, length), hex.formatHex(md5.digest())));
+                if (length < blockSize) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int readBlock(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    // rsync's rolling checksum: a = sum of bytes, b = sum of (len - i) * byte, both mod 2^16
+    public static long weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return ((long) (b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    public FileMetadata applyDelta(FileMetadata metadata, InputStream body, String expectedSha256) throws IOException {
+        // A buffered row would otherwise be flushed later over the updated one
+        if (metadataWriteBuffer.get(metadata.getId()).isPresent()) {
+            metadataWriteBuffer.flush();
+        }
+
+        Path filePath = fileStorageService.getFilePath(metadata.getFilename(), metadata.getOwnerId());
+        InputStream metered = storageMetrics.countUpload(transferScheduler.throttle(body, metadata.getOwnerId()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new DeltaBodyStream(metered), COPY_BUFFER_SIZE));
+        MessageDigest sha256 = expectedSha256 != null ? digest("SHA-256") : null;
+        boolean encrypt = fileEncryptionService.isEnabled();
+        long[] written = new long[1];
+
+        // Read before the base is opened, so a replacement in between can only cause a spurious conflict
+        BasicFileAttributes baseAttributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        Path staging;
+        // The body arrives at the client's pace, so the new version is built without holding the lock
+        try (SeekableByteChannel base = fileStorageService.openChannel(metadata)) {
+            staging = fileStorageService.stage(filePath, metadata.getOwnerId(), encrypt, out -> {
+                written[0] = reconstruct(in, base, out, sha256);
+                if (sha256 != null && !HexFormat.of().formatHex(sha256.digest()).equalsIgnoreCase(expectedSha256)) {
+                    throw new IllegalArgumentException("Reconstructed file does not match the expected SHA-256");
+                }
+            });
+        }
+
+        Lock lock = fileStorageService.lockFor(filePath);
+        lock.lock();
+        try {
+            if (!sameFile(baseAttributes, filePath)) {
+                throw new IllegalStateException("File changed while the delta was applied, fetch a new signature");
+            }
+            long storedSize = Files.size(staging);
+            fileStorageService.commit(staging, filePath);
+
+            metadata.setSize(written[0]);
+            metadata.setEncrypted(encrypt);
+            metadata.setEncryptionOverhead(encrypt ? storedSize - written[0] : 0);
+            metadata.setUploadDate(new Date());
+            FileMetadata saved = fileMetadataRepository.save(metadata);
+            searchIndexService.index(saved);
+            return saved;
+        } finally {
+            lock.unlock();
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    // Every replacement is a rename, so a new upload changes the file key even when size and mtime match
+    private boolean sameFile(BasicFileAttributes expected, Path filePath) throws IOException {
+        if (!Files.exists(filePath)) {
+            return false;
+        }
+        BasicFileAttributes current = Files.readAttributes(filePath, BasicFileAttributes.class);
+        return current.size() == expected.size()
+                && current.lastModifiedTime().equals(expected.lastModifiedTime())
+                && Objects.equals(current.fileKey(), expected.fileKey());
+    }
+
+    // The digest, when given, covers the plaintext as it is written
+    private long reconstruct(DataInputStream in, SeekableByteChannel base, WritableByteChannel out,
+                             MessageDigest digest) throws IOException {
+        try {
+            return reconstructOps(in, base, out, digest);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Delta ended before its end op");
+        }
+    }
+
+    private long reconstructOps(DataInputStream in, SeekableByteChannel base, WritableByteChannel out,
+                                MessageDigest digest) throws IOException {
+        int blockSize = in.readInt();
+        checkBlockSize(blockSize);
+        long baseSize = base.size();
+        long baseBlocks = (baseSize + blockSize - 1) / blockSize;
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long written = 0;
+
+        while (true) {
+            byte op = in.readByte();
+            if (op == OP_END) {
+                return written;
+            } else if (op == OP_COPY) {
+                int startBlock = in.readInt();
+                int blockCount = in.readInt();
+                if (startBlock < 0 || blockCount <= 0 || (long) startBlock + blockCount > baseBlocks) {
+                    throw new IllegalArgumentException("Copy op references blocks outside the current file");
+                }
+                long position = (long) startBlock * blockSize;
+                long length = Math.min((long) blockCount * blockSize, baseSize - position);
+                written += length;
+                if (digest == null && base instanceof FileChannel file) {
+                    // Plaintext base and nothing to hash: let the kernel copy
+                    while (length > 0) {
+                        long transferred = file.transferTo(position, length, out);
+                        position += transferred;
+                        length -= transferred;
+                    }
+                    continue;
+                }
+                base.position(position);
+                while (length > 0) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), length));
+                    if (base.read(buffer) < 0) {
+                        throw new IOException("Current file ended inside a copied block");
+                    }
+                    buffer.flip();
+                    length -= buffer.remaining();
+                    write(out, buffer, digest);
+                }
+            } else if (op == OP_DATA) {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IllegalArgumentException("Negative literal length");
+                }
+                written += length;
+                while (length > 0) {
+                    int read = in.read(buffer.array(), 0, Math.min(buffer.capacity(), length));
+                    if (read < 0) {
+                        throw new IllegalArgumentException("Delta ended inside a literal");
+                    }
+                    buffer.clear().limit(read);
+                    write(out, buffer, digest);
+                    length -= read;
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown delta op " + op);
+            }
+        }
+    }
+
+    private void write(WritableByteChannel out, ByteBuffer chunk, MessageDigest digest) throws IOException {
+        if (digest != null) {
+            digest.update(chunk.array(), chunk.position(), chunk.remaining());
+        }
+        while (chunk.hasRemaining()) {
+            out.write(chunk);
+        }
+    }
+
+    private void checkBlockSize(int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+        }
+    }
+
+    // A body that cannot be read (bad chunked encoding, aborted upload) is the client's fault, not a 500
+    private static class DeltaBodyStream extends FilterInputStream {
+
+        DeltaBodyStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read delta body: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read delta body: " + e.getMessage());
+            }
+        }
+    }
+
+    private MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        }
+    }
+}
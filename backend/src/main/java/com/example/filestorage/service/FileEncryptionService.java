@@ -0,0 +1,459 @@
+package com.example.filestorage.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Streaming AES-GCM encryption of stored files, in fixed-size segments so any byte range can be
+ * read by decrypting only the segments it touches.
+ *
+ * Layout: {@code "FSE" version(1) segmentSize(int) noncePrefix(7) wrappedKeyLength(short) wrappedKey},
+ * then one {@code ciphertext + 16-byte tag} per segment of plaintext. Each file gets a random AES-256
+ * data key wrapped (RFC 3394) with the master key. A segment's nonce is the file's prefix, the segment
+ * index and a last-segment flag, so segments cannot be reordered or the file truncated unnoticed.
+ * Every segment also authenticates the header and the owner and filename the file is stored under,
+ * so a blob, header or wrapped key moved to another file fails to decrypt.
+ */
+@Service
+public class FileEncryptionService {
+
+    private static final byte[] MAGIC = "FSE".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 2;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    @Value("${file.encryption.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.encryption.master-key:}")
+    private String masterKeyBase64;
+
+    @Value("${file.encryption.segment-size:65536}")
+    private int segmentSize;
+
+    private final SecureRandom random = new SecureRandom();
+    private SecretKey masterKey;
+
+    @PostConstruct
+    public void init() {
+        // Reading already-encrypted files only needs the key, so it is loaded even when new writes are plain
+        if (masterKeyBase64 != null && !masterKeyBase64.isBlank()) {
+            byte[] key = Base64.getDecoder().decode(masterKeyBase64.trim());
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalStateException("file.encryption.master-key must be a base64 AES key of 16, 24 or 32 bytes");
+            }
+            masterKey = new SecretKeySpec(key, "AES");
+        }
+        if (enabled && masterKey == null) {
+            throw new IllegalStateException("file.encryption.enabled requires file.encryption.master-key");
+        }
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalStateException("file.encryption.segment-size must be between " + MIN_SEGMENT_SIZE + " and " + MAX_SEGMENT_SIZE);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Closing the returned channel writes the final segment; the target itself is left open
+    public WritableByteChannel encrypting(WritableByteChannel target, String ownerId, String filename) throws IOException {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256, random);
+            SecretKey dataKey = generator.generateKey();
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            random.nextBytes(noncePrefix);
+
+            Cipher wrapper = Cipher.getInstance("AESWrap");
+            wrapper.init(Cipher.WRAP_MODE, requireMasterKey());
+            byte[] wrappedKey = wrapper.wrap(dataKey);
+
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1 + 4 + NONCE_PREFIX_LENGTH + 2 + wrappedKey.length)
+                    .put(MAGIC)
+                    .put(VERSION)
+                    .putInt(segmentSize)
+                    .put(noncePrefix)
+                    .putShort((short) wrappedKey.length)
+                    .put(wrappedKey)
+                    .flip();
+            byte[] associatedData = associatedData(header.array(), ownerId, filename);
+            while (header.hasRemaining()) {
+                target.write(header);
+            }
+            return new EncryptingChannel(target, Cipher.getInstance("AES/GCM/NoPadding"), dataKey, noncePrefix,
+                    associatedData, segmentSize);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to set up file encryption", e);
+        }
+    }
+
+    public SeekableByteChannel openDecrypting(Path filePath, String ownerId, String filename) throws IOException {
+        FileChannel source = FileChannel.open(filePath, StandardOpenOption.READ);
+        try {
+            ByteBuffer fixed = ByteBuffer.allocate(MAGIC.length + 1 + 4 + NONCE_PREFIX_LENGTH + 2);
+            readFully(source, fixed, 0);
+            fixed.flip();
+            byte[] magic = new byte[MAGIC.length];
+            fixed.get(magic);
+            byte version = fixed.get();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Not an encrypted file: " + filePath);
+            }
+            int fileSegmentSize = fixed.getInt();
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            fixed.get(noncePrefix);
+            int wrappedKeyLength = fixed.getShort() & 0xffff;
+            if (fileSegmentSize < MIN_SEGMENT_SIZE || fileSegmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Corrupt encryption header in " + filePath);
+            }
+
+            ByteBuffer wrappedKey = ByteBuffer.allocate(wrappedKeyLength);
+            readFully(source, wrappedKey, fixed.capacity());
+            Cipher unwrapper = Cipher.getInstance("AESWrap");
+            unwrapper.init(Cipher.UNWRAP_MODE, requireMasterKey());
+            SecretKey dataKey = (SecretKey) unwrapper.unwrap(wrappedKey.array(), "AES", Cipher.SECRET_KEY);
+
+            long headerLength = fixed.capacity() + wrappedKeyLength;
+            byte[] header = ByteBuffer.allocate((int) headerLength).put(fixed.array()).put(wrappedKey.array()).array();
+            byte[] associatedData = associatedData(header, ownerId, filename);
+            return new DecryptingChannel(source, Cipher.getInstance("AES/GCM/NoPadding"), dataKey, noncePrefix,
+                    associatedData, fileSegmentSize, headerLength);
+        } catch (GeneralSecurityException e) {
+            source.close();
+            throw new IOException("Cannot unwrap the data key of " + filePath, e);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    public InputStream openStream(Path filePath, String ownerId, String filename) throws IOException {
+        return new SeekableInputStream(openDecrypting(filePath, ownerId, filename));
+    }
+
+    // The header followed by the length-prefixed owner and filename
+    private static byte[] associatedData(byte[] header, String ownerId, String filename) {
+        byte[] owner = ownerId.getBytes(StandardCharsets.UTF_8);
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(header.length + 4 + owner.length + 4 + name.length)
+                .put(header)
+                .putInt(owner.length)
+                .put(owner)
+                .putInt(name.length)
+                .put(name)
+                .array();
+    }
+
+    // Only looks at the magic bytes; says nothing about whether the file decrypts
+    public boolean hasEncryptionHeader(Path filePath) throws IOException {
+        try (FileChannel source = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && source.read(magic) >= 0) {
+                // Keep reading until the magic is complete or the file ends
+            }
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        }
+    }
+
+    private SecretKey requireMasterKey() throws IOException {
+        if (masterKey == null) {
+            throw new IOException("file.encryption.master-key is not configured");
+        }
+        return masterKey;
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Encrypted file is truncated");
+            }
+        }
+    }
+
+    private static GCMParameterSpec segmentNonce(byte[] nonce, int segment, boolean last) {
+        nonce[NONCE_PREFIX_LENGTH] = (byte) (segment >>> 24);
+        nonce[NONCE_PREFIX_LENGTH + 1] = (byte) (segment >>> 16);
+        nonce[NONCE_PREFIX_LENGTH + 2] = (byte) (segment >>> 8);
+        nonce[NONCE_PREFIX_LENGTH + 3] = (byte) segment;
+        nonce[NONCE_LENGTH - 1] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    private static class EncryptingChannel implements WritableByteChannel {
+
+        private final WritableByteChannel target;
+        private final Cipher cipher;
+        private final SecretKey key;
+        private final byte[] nonce = new byte[NONCE_LENGTH];
+        private final byte[] associatedData;
+        private final ByteBuffer plaintext;
+        private final ByteBuffer ciphertext;
+        private int segment;
+        private boolean open = true;
+
+        EncryptingChannel(WritableByteChannel target, Cipher cipher, SecretKey key, byte[] noncePrefix,
+                          byte[] associatedData, int segmentSize) {
+            this.target = target;
+            this.cipher = cipher;
+            this.key = key;
+            System.arraycopy(noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+            this.associatedData = associatedData;
+            this.plaintext = ByteBuffer.allocate(segmentSize);
+            this.ciphertext = ByteBuffer.allocate(segmentSize + TAG_LENGTH);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int written = 0;
+            while (src.hasRemaining()) {
+                // A full segment is only sealed once more data arrives, so the last one is always flagged as such
+                if (!plaintext.hasRemaining()) {
+                    seal(false);
+                }
+                int length = Math.min(src.remaining(), plaintext.remaining());
+                int limit = src.limit();
+                src.limit(src.position() + length);
+                plaintext.put(src);
+                src.limit(limit);
+                written += length;
+            }
+            return written;
+        }
+
+        private void seal(boolean last) throws IOException {
+            if (segment == Integer.MAX_VALUE) {
+                throw new IOException("File too large to encrypt");
+            }
+            plaintext.flip();
+            ciphertext.clear();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, segmentNonce(nonce, segment, last));
+                cipher.updateAAD(associatedData);
+                cipher.doFinal(plaintext, ciphertext);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt segment " + segment, e);
+            }
+            ciphertext.flip();
+            while (ciphertext.hasRemaining()) {
+                target.write(ciphertext);
+            }
+            plaintext.clear();
+            segment++;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                seal(true);
+            }
+        }
+    }
+
+    private static class DecryptingChannel implements SeekableByteChannel {
+
+        private final FileChannel source;
+        private final Cipher cipher;
+        private final SecretKey key;
+        private final byte[] nonce = new byte[NONCE_LENGTH];
+        private final byte[] associatedData;
+        private final int segmentSize;
+        private final long headerLength;
+        private final long storedSize;
+        private final int segmentCount;
+        private final long size;
+        private final ByteBuffer plaintext;
+        private final ByteBuffer ciphertext;
+        private long position;
+        private int loadedSegment = -1;
+
+        DecryptingChannel(FileChannel source, Cipher cipher, SecretKey key, byte[] noncePrefix, byte[] associatedData,
+                          int segmentSize, long headerLength) throws IOException {
+            this.source = source;
+            this.cipher = cipher;
+            this.key = key;
+            System.arraycopy(noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+            this.associatedData = associatedData;
+            this.segmentSize = segmentSize;
+            this.headerLength = headerLength;
+            this.storedSize = source.size();
+
+            // Every segment, including an empty final one, carries a tag
+            long body = storedSize - headerLength;
+            long segments = (body + segmentSize + TAG_LENGTH - 1) / (segmentSize + TAG_LENGTH);
+            long plaintextSize = body - segments * TAG_LENGTH;
+            if (segments < 1 || segments > Integer.MAX_VALUE || plaintextSize < (segments - 1) * segmentSize) {
+                throw new IOException("Encrypted file is truncated");
+            }
+            this.segmentCount = (int) segments;
+            this.size = plaintextSize;
+            this.plaintext = ByteBuffer.allocate(segmentSize);
+            this.ciphertext = ByteBuffer.allocate(segmentSize + TAG_LENGTH);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!source.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (position >= size) {
+                return dst.hasRemaining() ? -1 : 0;
+            }
+            int read = 0;
+            while (dst.hasRemaining() && position < size) {
+                int segment = (int) (position / segmentSize);
+                if (segment != loadedSegment) {
+                    load(segment);
+                }
+                int offset = (int) (position - (long) segment * segmentSize);
+                int length = Math.min(dst.remaining(), plaintext.limit() - offset);
+                plaintext.limit(offset + length).position(offset);
+                dst.put(plaintext);
+                plaintext.limit(segmentLength(segment));
+                position += length;
+                read += length;
+            }
+            return read;
+        }
+
+        private void load(int segment) throws IOException {
+            long start = headerLength + (long) segment * (segmentSize + TAG_LENGTH);
+            ciphertext.clear().limit(segmentLength(segment) + TAG_LENGTH);
+            readFully(source, ciphertext, start);
+            ciphertext.flip();
+            plaintext.clear();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, segmentNonce(nonce, segment, segment == segmentCount - 1));
+                cipher.updateAAD(associatedData);
+                cipher.doFinal(ciphertext, plaintext);
+            } catch (GeneralSecurityException e) {
+                loadedSegment = -1;
+                throw new IOException("Encrypted segment " + segment + " failed authentication", e);
+            }
+            plaintext.flip();
+            loadedSegment = segment;
+        }
+
+        private int segmentLength(int segment) {
+            return (int) Math.min(segmentSize, size - (long) segment * segmentSize);
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        // Seeking is free; only the segment holding the next byte read is decrypted
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    // Unlike Channels.newInputStream, skip() seeks, which is how Spring serves byte ranges
+    private static class SeekableInputStream extends InputStream {
+
+        private final SeekableByteChannel channel;
+        private final byte[] single = new byte[1];
+
+        SeekableInputStream(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long position = channel.position();
+            long skipped = Math.max(0, Math.min(n, channel.size() - position));
+            channel.position(position + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - channel.position()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
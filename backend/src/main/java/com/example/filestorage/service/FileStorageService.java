@@ -2,6 +2,8 @@ package com.example.filestorage.service;
 
 import com.example.filestorage.model.FileMetadata;
 import com.example.filestorage.repository.FileMetadataRepository;
+import com.example.filestorage.tracing.RequestTiming;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -9,28 +11,117 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class FileStorageService {
 
+    public static final String STAGING_PREFIX = ".upload-";
+    private static final int LOCK_STRIPES = 256;
+
+    private final Lock[] pathLocks = Stream.generate(ReentrantLock::new).limit(LOCK_STRIPES).toArray(Lock[]::new);
+
     @Value("${file.upload-dir}")
     private String uploadDir;
 
     @Autowired
     private FileMetadataRepository fileMetadataRepository;
 
+    @Autowired
+    private MetadataWriteBuffer metadataWriteBuffer;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    @Autowired
+    private StorageMetrics storageMetrics;
+
+    @Autowired
+    private FileEncryptionService fileEncryptionService;
+
     public FileMetadata storeFile(MultipartFile file, String ownerId) throws IOException {
         if (file.isEmpty()) {
             throw new IOException("Failed to store empty file.");
         }
-        String filename = StringUtils.cleanPath(file.getOriginalFilename());
+        Path filePath = resolveUploadPath(ownerId, file.getOriginalFilename());
+        String filename = filePath.getFileName().toString();
+
+        Path userDir = filePath.getParent();
+        if (!Files.exists(userDir)) {
+            Files.createDirectories(userDir);
+        }
+
+        boolean encrypt = fileEncryptionService.isEnabled();
+        // Only time spent writing counts as disk_copy and disk-write; throttle waits are reported by the scheduler
+        AtomicLong writeNanos = new AtomicLong();
+        Path staging = stage(filePath, ownerId, encrypt, out -> {
+            try (InputStream in = storageMetrics.countUpload(transferScheduler.throttle(file.getInputStream(), ownerId))) {
+                in.transferTo(Channels.newOutputStream(timed(out, writeNanos)));
+            }
+        });
+        storageMetrics.diskCopyTimer().record(writeNanos.get(), TimeUnit.NANOSECONDS);
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.record("disk-write", writeNanos.get());
+        }
+
+        // Serialize uploads of the same name so bytes and metadata always end up paired. Only the swap
+        // and the metadata write are locked, so a slow upload never holds up others on the same stripe
+        Lock lock = lockFor(filePath);
+        lock.lock();
+        try {
+            long storedSize = Files.size(staging);
+            commit(staging, filePath);
+
+            // Re-uploading a name replaces the existing entry instead of adding a duplicate
+            FileMetadata metadata = findActiveFile(ownerId, filename).orElseGet(FileMetadata::new);
+            metadata.setFilename(filename);
+            metadata.setContentType(file.getContentType());
+            metadata.setSize(file.getSize());
+            metadata.setUploadDate(new Date());
+            metadata.setOwnerId(ownerId);
+            metadata.setEncrypted(encrypt);
+            metadata.setEncryptionOverhead(encrypt ? storedSize - file.getSize() : 0);
+
+            Timer.Sample metadataSave = Timer.start();
+            FileMetadata saved = metadata.getId() == null && metadataWriteBuffer.isEnabled()
+                    ? metadataWriteBuffer.append(metadata)
+                    : fileMetadataRepository.save(metadata);
+            metadataSave.stop(storageMetrics.metadataSaveTimer());
+            searchIndexService.index(saved);
+            return saved;
+        } finally {
+            lock.unlock();
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    public Path resolveUploadPath(String ownerId, String originalFilename) throws IOException {
+        String filename = StringUtils.cleanPath(originalFilename);
         
         // Security: Prevent path traversal attacks
         if (filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
@@ -38,84 +129,182 @@ public class FileStorageService {
         }
         
         // Security: Validate filename is not empty after cleaning
-        if (filename.isEmpty()) {
+        if (filename.isEmpty() || filename.startsWith(STAGING_PREFIX)) {
             throw new IOException("Invalid filename");
         }
         
-        Path userDir = Paths.get(uploadDir, "user_" + ownerId);
-
-        if (!Files.exists(userDir)) {
-            Files.createDirectories(userDir);
-        }
-
+        Path userDir = getUserDir(ownerId);
         Path filePath = userDir.resolve(filename);
         
         // Security: Ensure the resolved path is still within user directory
         if (!filePath.normalize().startsWith(userDir.normalize())) {
             throw new IOException("Invalid file path");
         }
-        
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        return filePath;
+    }
 
-        FileMetadata metadata = new FileMetadata();
-        metadata.setFilename(filename);
-        metadata.setContentType(file.getContentType());
-        metadata.setSize(file.getSize());
-        metadata.setUploadDate(new Date());
-        metadata.setOwnerId(ownerId);
+    public Lock lockFor(Path filePath) {
+        return pathLocks[Math.floorMod(filePath.normalize().hashCode(), LOCK_STRIPES)];
+    }
+
+    private static WritableByteChannel timed(WritableByteChannel channel, AtomicLong nanos) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                long started = System.nanoTime();
+                try {
+                    return channel.write(src);
+                } finally {
+                    nanos.addAndGet(System.nanoTime() - started);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
 
-        return fileMetadataRepository.save(metadata);
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    public interface StagedWriter {
+        void write(WritableByteChannel out) throws IOException;
+    }
+
+    // Callers must hold lockFor(filePath); the writer always sees plaintext
+    public void writeAtomically(Path filePath, String ownerId, boolean encrypt, StagedWriter writer) throws IOException {
+        Path staging = stage(filePath, ownerId, encrypt, writer);
+        try {
+            commit(staging, filePath);
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    // Writes and fsyncs the new content next to filePath; needs no lock, as nothing else sees the file.
+    // Encrypted content is bound to ownerId and the final filename, not to the staging file's name
+    public Path stage(Path filePath, String ownerId, boolean encrypt, StagedWriter writer) throws IOException {
+        Path staging = Files.createTempFile(filePath.getParent(), STAGING_PREFIX, ".tmp");
+        boolean staged = false;
+        try {
+            try (FileChannel out = FileChannel.open(staging, StandardOpenOption.WRITE)) {
+                if (encrypt) {
+                    try (WritableByteChannel encrypting = fileEncryptionService.encrypting(out, ownerId, filePath.getFileName().toString())) {
+                        writer.write(encrypting);
+                    }
+                } else {
+                    writer.write(out);
+                }
+                out.force(true);
+            }
+            staged = true;
+            return staging;
+        } finally {
+            if (!staged) {
+                Files.deleteIfExists(staging);
+            }
+        }
+    }
+
+    // Swaps a staged file into place; callers must hold lockFor(filePath)
+    public void commit(Path staging, Path filePath) throws IOException {
+        Files.move(staging, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(filePath.getParent());
+    }
+
+    private void syncDirectory(Path dir) {
+        // Persists the rename itself; not every platform allows opening a directory
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    private Optional<FileMetadata> findActiveFile(String ownerId, String filename) throws IOException {
+        boolean buffered = metadataWriteBuffer.getByOwner(ownerId).stream()
+                .anyMatch(metadata -> filename.equals(metadata.getFilename()));
+        if (buffered) {
+            metadataWriteBuffer.flush();
+        }
+        return fileMetadataRepository.findActiveByOwnerIdAndFilename(ownerId, filename).stream().findFirst();
     }
 
     public List<FileMetadata> getFilesByOwner(String ownerId) {
-        return fileMetadataRepository.findByOwnerId(ownerId);
+        if (!metadataWriteBuffer.isEnabled()) {
+            return fileMetadataRepository.findActiveByOwnerId(ownerId);
+        }
+        // Buffer first: a flush inserts into Mongo before it drops the entry from the buffer, so
+        // each entry is seen at least once, and rows present in both are kept only once
+        List<FileMetadata> buffered = metadataWriteBuffer.getByOwner(ownerId);
+        List<FileMetadata> files = new ArrayList<>(fileMetadataRepository.findActiveByOwnerId(ownerId));
+        Set<String> ids = files.stream().map(FileMetadata::getId).collect(Collectors.toSet());
+        for (FileMetadata metadata : buffered) {
+            if (ids.add(metadata.getId())) {
+                files.add(metadata);
+            }
+        }
+        return files;
     }
 
     public Optional<FileMetadata> getFile(String id) {
-        return fileMetadataRepository.findById(id);
+        Optional<FileMetadata> buffered = metadataWriteBuffer.get(id);
+        if (buffered.isPresent()) {
+            return buffered;
+        }
+        return fileMetadataRepository.findById(id).filter(metadata -> !metadata.isDeleted());
     }
     
+    // Plaintext view of a stored file; skip() seeks without decrypting the skipped segments
+    public InputStream openStream(FileMetadata metadata) throws IOException {
+        Path filePath = getFilePath(metadata.getFilename(), metadata.getOwnerId());
+        return metadata.isEncrypted()
+                ? fileEncryptionService.openStream(filePath, metadata.getOwnerId(), metadata.getFilename())
+                : Files.newInputStream(filePath);
+    }
+
+    public SeekableByteChannel openChannel(FileMetadata metadata) throws IOException {
+        Path filePath = getFilePath(metadata.getFilename(), metadata.getOwnerId());
+        return metadata.isEncrypted()
+                ? fileEncryptionService.openDecrypting(filePath, metadata.getOwnerId(), metadata.getFilename())
+                : FileChannel.open(filePath, StandardOpenOption.READ);
+    }
+
+    public Path getUserDir(String ownerId) {
+        return Paths.get(uploadDir, "user_" + ownerId);
+    }
+
     public Path getFilePath(String filename, String ownerId) {
-        return Paths.get(uploadDir, "user_" + ownerId).resolve(filename);
+        return getUserDir(ownerId).resolve(filename);
     }
 
     public void deleteFile(String id) throws IOException {
+        // Make sure a buffered entry is in Mongo so the delete is not undone by a later flush
+        metadataWriteBuffer.flush();
         Optional<FileMetadata> metadataOpt = fileMetadataRepository.findById(id);
         if (metadataOpt.isPresent()) {
             FileMetadata metadata = metadataOpt.get();
-            Path filePath = Paths.get(uploadDir, "user_" + metadata.getOwnerId()).resolve(metadata.getFilename());
-            Files.deleteIfExists(filePath);
-            fileMetadataRepository.deleteById(id);
+            Path filePath = getFilePath(metadata.getFilename(), metadata.getOwnerId());
+            Lock lock = lockFor(filePath);
+            lock.lock();
+            try {
+                Files.deleteIfExists(filePath);
+                fileMetadataRepository.deleteById(id);
+                searchIndexService.delete(id);
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
     public long getTotalStorageUsage(String ownerId) {
-        return fileMetadataRepository.findByOwnerId(ownerId).stream()
+        return getFilesByOwner(ownerId).stream()
                 .mapToLong(FileMetadata::getSize)
 
                 .sum();
     }
-
-    public void deleteAllFilesForUser(String ownerId) throws IOException {
-        List<FileMetadata> userFiles = fileMetadataRepository.findByOwnerId(ownerId);
-        
-        // Delete physical files
-        Path userDir = Paths.get(uploadDir, "user_" + ownerId);
-        if (Files.exists(userDir)) {
-            // Delete all files in the directory
-            try (var stream = Files.walk(userDir)) {
-                stream.sorted((p1, p2) -> -p1.compareTo(p2)) // Reverse order to delete files before dir
-                      .forEach(path -> {
-                          try {
-                              Files.delete(path);
-                          } catch (IOException e) {
-                              e.printStackTrace();
-                          }
-                      });
-            }
-        }
-
-        // Delete metadata
-        fileMetadataRepository.deleteAll(userFiles);
-    }
 }
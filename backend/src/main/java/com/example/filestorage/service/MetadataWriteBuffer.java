@@ -0,0 +1,264 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.model.FileMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@Service
+public class MetadataWriteBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataWriteBuffer.class);
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Value("${file.metadata.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.metadata.write-behind.wal-dir:metadata-wal}")
+    private String walDir;
+
+    @Value("${file.metadata.write-behind.batch-size:256}")
+    private int batchSize;
+
+    @Value("${file.metadata.write-behind.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, FileMetadata> pending = new ConcurrentHashMap<>();
+    private final List<Path> sealedSegments = new ArrayList<>();
+    private final Object walLock = new Object();
+    private final Object syncLock = new Object();
+    private final Object flushLock = new Object();
+
+    // Group commit: appends are numbered under walLock, and one fsync makes every append up to
+    // the number it observed durable, so concurrent uploads share a single fsync
+    private long appendedSeq;
+    private long syncedSeq;
+
+    private FileChannel walChannel;
+    private Path walSegment;
+    private ScheduledExecutorService flushExecutor;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(Paths.get(walDir));
+        replay();
+        openSegment();
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metadata-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        flushExecutor.shutdownNow();
+        flushQuietly();
+        synchronized (walLock) {
+            walChannel.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public FileMetadata append(FileMetadata metadata) throws IOException {
+        if (metadata.getId() == null) {
+            metadata.setId(new ObjectId().toHexString());
+        }
+        byte[] line = (objectMapper.writeValueAsString(metadata) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        long seq;
+        synchronized (walLock) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                walChannel.write(buffer);
+            }
+            pending.put(metadata.getId(), metadata);
+            seq = ++appendedSeq;
+        }
+        awaitDurable(seq);
+
+        if (pending.size() >= batchSize) {
+            flushExecutor.execute(this::flushQuietly);
+        }
+        return metadata;
+    }
+
+    private void awaitDurable(long seq) throws IOException {
+        // Whoever holds syncLock fsyncs for everyone queued behind it; they usually find their
+        // entry already covered when they get the lock
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            synchronized (walLock) {
+                target = appendedSeq;
+                channel = walChannel;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // A flush rotated the segment in between, and it forces a segment before closing it
+            }
+            syncedSeq = target;
+        }
+    }
+
+    public Optional<FileMetadata> get(String id) {
+        return Optional.ofNullable(pending.get(id));
+    }
+
+    public List<FileMetadata> getByOwner(String ownerId) {
+        List<FileMetadata> result = new ArrayList<>();
+        for (FileMetadata metadata : pending.values()) {
+            if (ownerId.equals(metadata.getOwnerId())) {
+                result.add(metadata);
+            }
+        }
+        return result;
+    }
+
+    public void flush() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        synchronized (flushLock) {
+            List<FileMetadata> batch;
+            List<Path> covered;
+            synchronized (walLock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                // Appends still waiting for their group fsync are covered by this one
+                walChannel.force(false);
+                walChannel.close();
+                sealedSegments.add(walSegment);
+                covered = new ArrayList<>(sealedSegments);
+                openSegment();
+            }
+
+            insertAll(batch);
+            for (FileMetadata metadata : batch) {
+                pending.remove(metadata.getId());
+            }
+
+            // Every sealed segment only holds entries from this batch or earlier flushed ones
+            for (Path segment : covered) {
+                Files.deleteIfExists(segment);
+            }
+            synchronized (walLock) {
+                sealedSegments.removeAll(covered);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.warn("Failed to flush buffered metadata, will retry", e);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        walSegment = Paths.get(walDir, "segment-" + System.currentTimeMillis() + "-" + System.nanoTime() + ".log");
+        walChannel = FileChannel.open(walSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private void replay() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> stream = Files.list(Paths.get(walDir))) {
+            segments = stream.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        List<FileMetadata> entries = new ArrayList<>();
+        for (Path segment : segments) {
+            for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    entries.add(objectMapper.readValue(line, FileMetadata.class));
+                } catch (IOException e) {
+                    // A torn final line from a crash mid-append
+                    logger.warn("Skipping unreadable WAL entry in {}", segment);
+                }
+            }
+        }
+
+        logger.info("Replaying {} buffered metadata entries from {} WAL segments", entries.size(), segments.size());
+        for (int start = 0; start < entries.size(); start += batchSize) {
+            insertAll(entries.subList(start, Math.min(start + batchSize, entries.size())));
+        }
+        for (Path segment : segments) {
+            Files.delete(segment);
+        }
+    }
+
+    private void insertAll(List<FileMetadata> batch) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileMetadata.class)
+                    .insert(batch)
+                    .execute();
+        } catch (BulkOperationException e) {
+            // Entries already written by an earlier attempt are fine to skip
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.cluster.ClusterService;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.model.SearchResults;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.pattern.PatternTokenizer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+@Service
+public class SearchIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexService.class);
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_OWNER = "ownerId";
+    private static final String FIELD_FILENAME = "filename";
+    private static final String FIELD_CONTENT = "content";
+    private static final String FIELD_CONTENT_TYPE = "contentType";
+    private static final String FIELD_SIZE = "size";
+    private static final String FIELD_UPLOAD_DATE = "uploadDate";
+    private static final String FIELD_GENERATION = "generation";
+    private static final int MAX_RESULT_WINDOW = 10_000;
+    // Shorter filename terms must match a whole token; a one-letter prefix would expand over every term in the index
+    private static final int MIN_PREFIX_LENGTH = 3;
+    private static final String CLEAN_SHUTDOWN_MARKER = "clean-shutdown";
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Value("${file.search.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.search.index-dir:search-index}")
+    private String indexDir;
+
+    @Value("${file.search.max-content-bytes:1048576}")
+    private int maxContentBytes;
+
+    @Value("${file.search.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private FileEncryptionService fileEncryptionService;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    private final Analyzer filenameAnalyzer = new FilenameAnalyzer();
+    private final Analyzer contentAnalyzer = new StandardAnalyzer();
+
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private BlockingQueue<IndexTask> queue;
+    private Thread indexer;
+    private volatile boolean running;
+    private ScheduledExecutorService refresher;
+    // Documents indexed by this process carry its generation, so a rebuild can drop everything older
+    private final String generation = Long.toString(System.currentTimeMillis());
+
+    private interface IndexTask {
+        void apply(IndexWriter writer) throws IOException;
+    }
+
+    // Splits on anything that is not a letter or digit, so "q3_report-final.pdf" yields q3, report, final, pdf
+    private static class FilenameAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer tokenizer = new PatternTokenizer(Pattern.compile("[^\\p{L}\\p{N}]+"), -1);
+            return new TokenStreamComponents(tokenizer, new LowerCaseFilter(tokenizer));
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Analyzer analyzer = new PerFieldAnalyzerWrapper(contentAnalyzer, Map.of(FIELD_FILENAME, filenameAnalyzer));
+        writer = new IndexWriter(FSDirectory.open(Paths.get(indexDir)), new IndexWriterConfig(analyzer));
+        searcherManager = new SearcherManager(writer, null);
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        // Present only if the last run committed every queued update before exiting
+        Path marker = Paths.get(indexDir, CLEAN_SHUTDOWN_MARKER);
+        boolean cleanShutdown = Files.deleteIfExists(marker);
+
+        running = true;
+        indexer = new Thread(this::drainQueue, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "search-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // New documents become searchable within a second; commits make them survive a restart
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, 1, 1, TimeUnit.SECONDS);
+        refresher.scheduleWithFixedDelay(this::commitQuietly, 30, 30, TimeUnit.SECONDS);
+
+        // Updates queued or uncommitted when the last run died are lost, so the index is reconciled from scratch
+        if (writer.getDocStats().numDocs == 0 || !cleanShutdown) {
+            Thread rebuilder = new Thread(this::rebuild, "search-rebuild");
+            rebuilder.setDaemon(true);
+            rebuilder.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        // Neither thread is interrupted: an interrupt inside a write or a commit aborts the writer
+        refresher.shutdown();
+        running = false;
+        try {
+            indexer.join();
+            refresher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searcherManager.close();
+        writer.commit();
+        writer.close();
+        if (queue.isEmpty()) {
+            Files.createFile(Paths.get(indexDir, CLEAN_SHUTDOWN_MARKER));
+        }
+    }
+
+    public void index(FileMetadata metadata) {
+        enqueue(writer -> writer.updateDocument(new Term(FIELD_ID, metadata.getId()), toDocument(metadata)));
+    }
+
+    public void delete(String id) {
+        enqueue(writer -> writer.deleteDocuments(new Term(FIELD_ID, id)));
+    }
+
+    // Scoped to the owner so a caller can never remove entries for somebody else's files
+    public void deleteAll(String ownerId, List<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        BooleanQuery.Builder idClauses = new BooleanQuery.Builder();
+        ids.forEach(id -> idClauses.add(new TermQuery(new Term(FIELD_ID, id)), BooleanClause.Occur.SHOULD));
+        org.apache.lucene.search.Query query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(FIELD_OWNER, ownerId)), BooleanClause.Occur.FILTER)
+                .add(idClauses.build(), BooleanClause.Occur.FILTER)
+                .build();
+        enqueue(writer -> writer.deleteDocuments(query));
+    }
+
+    public void deleteByOwner(String ownerId) {
+        enqueue(writer -> writer.deleteDocuments(new Term(FIELD_OWNER, ownerId)));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public SearchResults search(String ownerId, String text, int page, int size) throws IOException {
+        int window = (page + 1) * size;
+        if (window > MAX_RESULT_WINDOW) {
+            throw new IllegalArgumentException("Cannot page beyond " + MAX_RESULT_WINDOW + " results");
+        }
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(FIELD_OWNER, ownerId)), BooleanClause.Occur.FILTER);
+        boolean searchable = false;
+        for (String word : text.trim().split("\\s+")) {
+            // Each field is queried with the tokens its own analyzer produced at index time, so "user_id"
+            // is the filename tokens user and id but the single content token user_id
+            org.apache.lucene.search.Query filenameQuery = filenameQuery(analyze(filenameAnalyzer, FIELD_FILENAME, word));
+            org.apache.lucene.search.Query contentQuery = contentQuery(analyze(contentAnalyzer, FIELD_CONTENT, word));
+            if (filenameQuery == null && contentQuery == null) {
+                continue;
+            }
+            // Every word must match either the filename (by prefix, boosted) or the content
+            BooleanQuery.Builder wordQuery = new BooleanQuery.Builder();
+            if (filenameQuery != null) {
+                wordQuery.add(new BoostQuery(filenameQuery, 2f), BooleanClause.Occur.SHOULD);
+            }
+            if (contentQuery != null) {
+                wordQuery.add(contentQuery, BooleanClause.Occur.SHOULD);
+            }
+            query.add(wordQuery.build(), BooleanClause.Occur.MUST);
+            searchable = true;
+        }
+        if (!searchable) {
+            throw new IllegalArgumentException("Search query has no searchable terms");
+        }
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = searcher.search(query.build(), window);
+            StoredFields storedFields = searcher.storedFields();
+            ScoreDoc[] hits = topDocs.scoreDocs;
+            List<FileMetadata> files = new ArrayList<>();
+            for (int i = page * size; i < hits.length; i++) {
+                files.add(fromDocument(storedFields.document(hits[i].doc), ownerId));
+            }
+            return new SearchResults(topDocs.totalHits.value, page, size, files);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private org.apache.lucene.search.Query filenameQuery(List<String> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String term : terms) {
+            Term filenameTerm = new Term(FIELD_FILENAME, term);
+            query.add(term.length() >= MIN_PREFIX_LENGTH ? new PrefixQuery(filenameTerm) : new TermQuery(filenameTerm),
+                    BooleanClause.Occur.MUST);
+        }
+        return query.build();
+    }
+
+    private org.apache.lucene.search.Query contentQuery(List<String> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        terms.forEach(term -> query.add(new TermQuery(new Term(FIELD_CONTENT, term)), BooleanClause.Occur.MUST));
+        return query.build();
+    }
+
+    private static List<String> analyze(Analyzer analyzer, String field, String text) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        }
+        return terms;
+    }
+
+    private void enqueue(IndexTask task) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainQueue() {
+        while (running) {
+            try {
+                IndexTask task = queue.poll(1, TimeUnit.SECONDS);
+                if (task != null) {
+                    task.apply(writer);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.warn("Failed to apply search index update", e);
+            }
+        }
+    }
+
+    private Document toDocument(FileMetadata metadata) throws IOException {
+        Document doc = new Document();
+        doc.add(new StringField(FIELD_ID, metadata.getId(), Field.Store.YES));
+        doc.add(new StringField(FIELD_OWNER, metadata.getOwnerId(), Field.Store.NO));
+        doc.add(new StringField(FIELD_GENERATION, generation, Field.Store.NO));
+        doc.add(new TextField(FIELD_FILENAME, metadata.getFilename(), Field.Store.YES));
+        if (metadata.getContentType() != null) {
+            doc.add(new StoredField(FIELD_CONTENT_TYPE, metadata.getContentType()));
+        }
+        doc.add(new StoredField(FIELD_SIZE, metadata.getSize()));
+        if (metadata.getUploadDate() != null) {
+            doc.add(new StoredField(FIELD_UPLOAD_DATE, metadata.getUploadDate().getTime()));
+        }
+
+        String content = extractText(metadata);
+        if (content != null) {
+            doc.add(new TextField(FIELD_CONTENT, content, Field.Store.NO));
+        }
+        return doc;
+    }
+
+    private FileMetadata fromDocument(Document doc, String ownerId) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setId(doc.get(FIELD_ID));
+        metadata.setOwnerId(ownerId);
+        metadata.setFilename(doc.get(FIELD_FILENAME));
+        metadata.setContentType(doc.get(FIELD_CONTENT_TYPE));
+        metadata.setSize(doc.getField(FIELD_SIZE).numericValue().longValue());
+        if (doc.getField(FIELD_UPLOAD_DATE) != null) {
+            metadata.setUploadDate(new Date(doc.getField(FIELD_UPLOAD_DATE).numericValue().longValue()));
+        }
+        return metadata;
+    }
+
+    // Only text/* and JSON bodies are indexed, and only their first max-content-bytes
+    private String extractText(FileMetadata metadata) throws IOException {
+        String contentType = metadata.getContentType();
+        if (contentType == null) {
+            return null;
+        }
+        String type = contentType.toLowerCase();
+        if (!type.startsWith("text/") && !type.startsWith("application/json") && !type.contains("+json")) {
+            return null;
+        }
+
+        Path filePath = Paths.get(uploadDir, "user_" + metadata.getOwnerId()).resolve(metadata.getFilename());
+        if (!Files.exists(filePath)) {
+            return null;
+        }
+        try (InputStream in = metadata.isEncrypted()
+                ? fileEncryptionService.openStream(filePath, metadata.getOwnerId(), metadata.getFilename())
+                : Files.newInputStream(filePath)) {
+            return new String(in.readNBytes(maxContentBytes), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void rebuild() {
+        logger.info("Search index is empty or was not shut down cleanly, rebuilding from file metadata");
+        Query query = Query.query(Criteria.where("deleted").ne(true));
+        // Users placed on other nodes are indexed there
+        Map<String, Boolean> localOwners = new HashMap<>();
+        try (Stream<FileMetadata> stream = mongoTemplate.stream(query, FileMetadata.class)) {
+            stream.filter(metadata -> localOwners.computeIfAbsent(metadata.getOwnerId(), clusterService::isLocal))
+                    .forEach(metadata -> enqueue(writer -> {
+                        // Deletions update the metadata before queueing their own task, so a file deleted since
+                        // it was streamed is either skipped here or removed again right after
+                        if (isActive(metadata.getId())) {
+                            writer.updateDocument(new Term(FIELD_ID, metadata.getId()), toDocument(metadata));
+                        }
+                    }));
+        }
+        // Anything not re-indexed by this process belongs to a file that no longer exists
+        org.apache.lucene.search.Query stale = new BooleanQuery.Builder()
+                .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(FIELD_GENERATION, generation)), BooleanClause.Occur.MUST_NOT)
+                .build();
+        enqueue(writer -> writer.deleteDocuments(stale));
+    }
+
+    private boolean isActive(String id) {
+        return mongoTemplate.exists(Query.query(Criteria.where("id").is(id).and("deleted").ne(true)), FileMetadata.class);
+    }
+
+    private void refreshQuietly() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            logger.warn("Failed to refresh search index", e);
+        }
+    }
+
+    private void commitQuietly() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to commit search index", e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.filestorage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class StorageMetrics {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+
+    private Counter uploadBytes;
+    private Counter downloadBytes;
+    private Timer diskCopyTimer;
+    private Timer metadataSaveTimer;
+    private Timer authFilterTimer;
+
+    @PostConstruct
+    public void init() {
+        uploadBytes = Counter.builder("storage.transfer.bytes")
+                .tag("direction", "upload")
+                .baseUnit("bytes")
+                .register(registry);
+        downloadBytes = Counter.builder("storage.transfer.bytes")
+                .tag("direction", "download")
+                .baseUnit("bytes")
+                .register(registry);
+
+        diskCopyTimer = Timer.builder("storage.store.phase")
+                .tag("phase", "disk_copy")
+                .publishPercentileHistogram()
+                .register(registry);
+        metadataSaveTimer = Timer.builder("storage.store.phase")
+                .tag("phase", "metadata_save")
+                .publishPercentileHistogram()
+                .register(registry);
+        authFilterTimer = Timer.builder("auth.filter.duration")
+                .description("Time spent in JwtAuthenticationFilter, excluding the rest of the chain")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        Gauge.builder("storage.transfers.active", activeUploads, AtomicInteger::get)
+                .tag("direction", "upload")
+                .register(registry);
+        Gauge.builder("storage.transfers.active", activeDownloads, AtomicInteger::get)
+                .tag("direction", "download")
+                .register(registry);
+
+        Gauge.builder("storage.scheduler.active.users", transferScheduler, TransferScheduler::getActiveUserCount)
+                .register(registry);
+        Gauge.builder("storage.scheduler.allocated.bytes.per.second", transferScheduler, TransferScheduler::getAllocatedBytesPerSecond)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("storage.scheduler.wait", transferScheduler, TransferScheduler::getThrottledSeconds)
+                .description("Time transfers spent waiting for the scheduler")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    public Timer diskCopyTimer() {
+        return diskCopyTimer;
+    }
+
+    public Timer metadataSaveTimer() {
+        return metadataSaveTimer;
+    }
+
+    public Timer authFilterTimer() {
+        return authFilterTimer;
+    }
+
+    public InputStream countUpload(InputStream in) {
+        return new CountingInputStream(in, uploadBytes, activeUploads);
+    }
+
+    public InputStream countDownload(InputStream in) {
+        return new CountingInputStream(in, downloadBytes, activeDownloads);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final Counter bytes;
+        private final AtomicInteger active;
+        private boolean closed;
+
+        CountingInputStream(InputStream in, Counter bytes, AtomicInteger active) {
+            super(in);
+            this.bytes = bytes;
+            this.active = active;
+            active.incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                bytes.increment();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytes.increment(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    active.decrementAndGet();
+                }
+            }
+        }
+    }
+}
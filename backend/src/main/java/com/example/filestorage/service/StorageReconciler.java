@@ -0,0 +1,343 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.cluster.ClusterService;
+import com.example.filestorage.model.FileMetadata;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+@Service
+public class StorageReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageReconciler.class);
+    private static final String USER_DIR_PREFIX = "user_";
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Value("${file.reconciler.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.reconciler.repair:false}")
+    private boolean repair;
+
+    @Value("${file.reconciler.interval-ms:21600000}")
+    private long intervalMs;
+
+    @Value("${file.reconciler.grace-period-ms:3600000}")
+    private long gracePeriodMs;
+
+    @Value("${file.reconciler.parallelism:2}")
+    private int parallelism;
+
+    @Value("${file.reconciler.max-checks-per-second:2000}")
+    private long maxChecksPerSecond;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private MetadataWriteBuffer metadataWriteBuffer;
+
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private FileEncryptionService fileEncryptionService;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService scanExecutor;
+    private ExecutorService checkExecutor;
+    private TokenBucket throttle;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        throttle = new TokenBucket(maxChecksPerSecond, maxChecksPerSecond);
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "storage-reconciler");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+        // Bounded queue + caller-runs so a huge tree never queues more work than the workers can take
+        checkExecutor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism * 16), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        scanExecutor = Executors.newFixedThreadPool(2, threadFactory);
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleWithFixedDelay(this::reconcileQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scanExecutor.shutdownNow();
+        checkExecutor.shutdownNow();
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            logger.error("Storage reconciliation failed", e);
+        }
+    }
+
+    private void reconcile() {
+        long started = System.currentTimeMillis();
+        long cutoff = started - gracePeriodMs;
+        AtomicLong orphans = new AtomicLong();
+        AtomicLong staleStaging = new AtomicLong();
+        AtomicLong missingBlobs = new AtomicLong();
+        AtomicLong sizeMismatches = new AtomicLong();
+
+        // The disk walk and the collection walk share the worker pool and the throttle
+        CompletableFuture<Void> diskScan = CompletableFuture.runAsync(() -> scanStorage(cutoff, orphans, staleStaging), scanExecutor);
+        CompletableFuture<Void> metadataScan = CompletableFuture.runAsync(
+                () -> scanMetadata(cutoff, missingBlobs, sizeMismatches), scanExecutor);
+        CompletableFuture.allOf(diskScan, metadataScan).join();
+
+        logger.info("Storage reconciliation finished in {} ms: {} orphaned files, {} stale staging files, {} missing blobs, "
+                        + "{} size mismatches ({})",
+                System.currentTimeMillis() - started, orphans.get(), staleStaging.get(), missingBlobs.get(),
+                sizeMismatches.get(), repair ? "repaired" : "report only");
+    }
+
+    private void scanStorage(long cutoff, AtomicLong orphans, AtomicLong staleStaging) {
+        Path root = Paths.get(uploadDir);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (DirectoryStream<Path> userDirs = Files.newDirectoryStream(root, USER_DIR_PREFIX + "*")) {
+            for (Path userDir : userDirs) {
+                String ownerId = userDir.getFileName().toString().substring(USER_DIR_PREFIX.length());
+                // Copies of users that moved to another node are removed by the cluster migrator
+                if (!clusterService.isLocal(ownerId)) {
+                    continue;
+                }
+                scanUserDir(ownerId, userDir, cutoff, orphans, staleStaging);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to list {}", root, e);
+        }
+    }
+
+    private void scanUserDir(String ownerId, Path userDir, long cutoff, AtomicLong orphans, AtomicLong staleStaging) {
+        Set<String> known = knownFilenames(ownerId);
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(userDir)) {
+            for (Path filePath : files) {
+                throttled();
+                String filename = filePath.getFileName().toString();
+                if (known.contains(filename)) {
+                    continue;
+                }
+                checks.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        if (!Files.isRegularFile(filePath) || Files.getLastModifiedTime(filePath).toMillis() > cutoff) {
+                            return;
+                        }
+                        if (filename.startsWith(FileStorageService.STAGING_PREFIX)) {
+                            staleStaging.incrementAndGet();
+                            logger.warn("Stale staging file {}", filePath);
+                            if (repair) {
+                                Files.deleteIfExists(filePath);
+                            }
+                            return;
+                        }
+                        if (!repair) {
+                            orphans.incrementAndGet();
+                            logger.warn("Orphaned file without metadata {}", filePath);
+                            return;
+                        }
+                        Lock lock = fileStorageService.lockFor(filePath);
+                        lock.lock();
+                        try {
+                            // An upload may have completed since the owner's names were loaded
+                            if (!knownFilenames(ownerId).contains(filename)) {
+                                orphans.incrementAndGet();
+                                logger.warn("Removing orphaned file without metadata {}", filePath);
+                                Files.deleteIfExists(filePath);
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    } catch (IOException e) {
+                        logger.warn("Failed to check {}", filePath, e);
+                    }
+                }, checkExecutor));
+
+                // A directory can hold millions of unknown files; do not keep a future for each
+                if (checks.size() >= 1024) {
+                    CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).join();
+                    checks.clear();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to list {}", userDir, e);
+        }
+        CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void scanMetadata(long cutoff, AtomicLong missingBlobs, AtomicLong sizeMismatches) {
+        Query query = Query.query(Criteria.where("deleted").ne(true));
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+        // The collection is shared by every cluster node; only rows whose blobs live here are checked
+        Map<String, Boolean> localOwners = new HashMap<>();
+
+        try (Stream<FileMetadata> stream = mongoTemplate.stream(query, FileMetadata.class)) {
+            stream.forEach(metadata -> {
+                if (metadata.getUploadDate() != null && metadata.getUploadDate().getTime() > cutoff) {
+                    return;
+                }
+                if (!localOwners.computeIfAbsent(metadata.getOwnerId(), clusterService::isLocal)) {
+                    return;
+                }
+                checks.add(CompletableFuture.runAsync(() -> {
+                    throttled();
+                    Path filePath = fileStorageService.getFilePath(metadata.getFilename(), metadata.getOwnerId());
+                    if (Files.exists(filePath)) {
+                        checkStoredSize(metadata, filePath, sizeMismatches);
+                        return;
+                    }
+                    missingBlobs.incrementAndGet();
+                    logger.warn("Metadata {} points at missing file {}", metadata.getId(), filePath);
+                    if (!repair) {
+                        return;
+                    }
+                    Lock lock = fileStorageService.lockFor(filePath);
+                    lock.lock();
+                    try {
+                        if (!Files.exists(filePath)) {
+                            mongoTemplate.remove(Query.query(Criteria.where("id").is(metadata.getId())), FileMetadata.class);
+                            searchIndexService.delete(metadata.getId());
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }, checkExecutor));
+
+                // Keep the pending list small on collections with millions of rows
+                if (checks.size() >= 1024) {
+                    CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).join();
+                    checks.clear();
+                }
+            });
+        }
+        CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).join();
+    }
+
+    // A crash between the rename and the metadata save of a replacement leaves the old row describing
+    // the new bytes; the row's size, encryption flag and overhead are rebuilt from the file itself
+    private void checkStoredSize(FileMetadata metadata, Path filePath, AtomicLong sizeMismatches) {
+        try {
+            if (Files.size(filePath) == metadata.getSize() + metadata.getEncryptionOverhead()) {
+                return;
+            }
+            Lock lock = fileStorageService.lockFor(filePath);
+            lock.lock();
+            try {
+                // An upload may have been between its rename and its metadata save
+                FileMetadata current = mongoTemplate.findById(metadata.getId(), FileMetadata.class);
+                if (current == null || current.isDeleted() || !Files.exists(filePath)) {
+                    return;
+                }
+                long storedSize = Files.size(filePath);
+                if (storedSize == current.getSize() + current.getEncryptionOverhead()) {
+                    return;
+                }
+                sizeMismatches.incrementAndGet();
+                logger.warn("Metadata {} says {} bytes but {} holds {}", current.getId(),
+                        current.getSize() + current.getEncryptionOverhead(), filePath, storedSize);
+                if (!repair) {
+                    return;
+                }
+                boolean encrypted = fileEncryptionService.hasEncryptionHeader(filePath);
+                long size = storedSize;
+                if (encrypted) {
+                    try (SeekableByteChannel channel = fileEncryptionService.openDecrypting(
+                            filePath, current.getOwnerId(), current.getFilename())) {
+                        size = channel.size();
+                    }
+                }
+                current.setSize(size);
+                current.setEncrypted(encrypted);
+                current.setEncryptionOverhead(storedSize - size);
+                mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(current.getId())),
+                        new Update().set("size", size).set("encrypted", encrypted).set("encryptionOverhead", storedSize - size),
+                        FileMetadata.class);
+                searchIndexService.index(current);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to check the size of {}", filePath, e);
+        }
+    }
+
+    private Set<String> knownFilenames(String ownerId) {
+        Query query = Query.query(Criteria.where("ownerId").is(ownerId));
+        query.fields().include("filename");
+
+        Set<String> names = new HashSet<>();
+        for (FileMetadata metadata : mongoTemplate.find(query, FileMetadata.class)) {
+            names.add(metadata.getFilename());
+        }
+        for (FileMetadata metadata : metadataWriteBuffer.getByOwner(ownerId)) {
+            names.add(metadata.getFilename());
+        }
+        return names;
+    }
+
+    private void throttled() {
+        try {
+            throttle.acquire(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.filestorage.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+public class TokenBucket {
+
+    // The clock buckets refill from and the waits they pace; tests substitute a manual one
+    public interface Ticker {
+        Ticker SYSTEM = new Ticker() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleep(long nanos) throws InterruptedException {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+
+            @Override
+            public void await(Condition condition, long nanos) throws InterruptedException {
+                condition.awaitNanos(nanos);
+            }
+        };
+
+        long nanoTime();
+
+        void sleep(long nanos) throws InterruptedException;
+
+        // Waits up to nanos for a signal; the caller holds the condition's lock
+        void await(Condition condition, long nanos) throws InterruptedException;
+    }
+
+    private final long capacity;
+    private final double tokensPerNano;
+    private final Ticker ticker;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(long ratePerSecond, long capacity) {
+        this(ratePerSecond, capacity, Ticker.SYSTEM);
+    }
+
+    public TokenBucket(long ratePerSecond, long capacity, Ticker ticker) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.ticker = ticker;
+        this.tokens = capacity;
+        this.lastRefill = ticker.nanoTime();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long nanosUntilAvailable(long permits) {
+        refill();
+        return tokens >= permits ? 0 : (long) Math.ceil((permits - tokens) / tokensPerNano);
+    }
+
+    public synchronized boolean tryAcquire(long permits) {
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+
+    // Takes the permits immediately and sleeps off any debt, so large requests are still paced correctly
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+            waitNanos = tokens < 0 ? (long) (-tokens / tokensPerNano) : 0;
+        }
+        if (waitNanos > 0) {
+            ticker.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = ticker.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
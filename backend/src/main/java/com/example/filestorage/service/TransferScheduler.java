@@ -0,0 +1,279 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.model.User;
+import com.example.filestorage.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+public class TransferScheduler {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String DEFAULT_TIER = "USER";
+
+    @Value("${file.transfer.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.transfer.global-bytes-per-second:0}")
+    private long globalBytesPerSecond;
+
+    @Value("#{${file.transfer.tier-bytes-per-second:{USER:0}}}")
+    private Map<String, Long> tierBytesPerSecond;
+
+    @Value("#{${file.transfer.tier-weights:{USER:1}}}")
+    private Map<String, Integer> tierWeights;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    // Guarded by this
+    private final Map<String, UserShare> activeUsers = new HashMap<>();
+
+    // Weighted fair queuing over the global budget; the queue, virtual time and finish tags are guarded by queueLock
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition turnChanged = queueLock.newCondition();
+    private final PriorityQueue<Request> queue = new PriorityQueue<>();
+    private double virtualTime;
+    private long requestSequence;
+    private TokenBucket globalBucket;
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private TokenBucket.Ticker ticker = TokenBucket.Ticker.SYSTEM;
+
+    @PostConstruct
+    public void init() {
+        if (enabled && globalBytesPerSecond > 0) {
+            globalBucket = new TokenBucket(globalBytesPerSecond, burstFor(globalBytesPerSecond), ticker);
+        }
+    }
+
+    public InputStream throttle(InputStream in, String userId) {
+        if (!enabled) {
+            return in;
+        }
+        return new ThrottledInputStream(in, acquireShare(userId));
+    }
+
+    public synchronized Map<String, Object> getAllocation(String userId) {
+        Map<String, Object> allocation = new LinkedHashMap<>();
+        allocation.put("enabled", enabled);
+        allocation.put("activeUsers", activeUsers.size());
+        allocation.put("globalBytesPerSecond", globalBytesPerSecond);
+        UserShare share = activeUsers.get(userId);
+        if (share != null) {
+            allocation.put("tier", share.tier);
+            allocation.put("weight", share.weight);
+            allocation.put("activeTransfers", share.transfers);
+            allocation.put("guaranteedBytesPerSecond", guaranteedRate(share));
+            allocation.put("capBytesPerSecond", share.capRate);
+            allocation.put("bytesTransferred", share.bytes.get());
+        }
+        return allocation;
+    }
+
+    public double getThrottledSeconds() {
+        return throttledNanos.get() / 1_000_000_000d;
+    }
+
+    public synchronized int getActiveUserCount() {
+        return activeUsers.size();
+    }
+
+    public synchronized long getAllocatedBytesPerSecond() {
+        return activeUsers.values().stream().mapToLong(this::guaranteedRate).sum();
+    }
+
+    // The share a user gets when every active user is busy; idle bandwidth is handed out on top of it
+    private long guaranteedRate(UserShare share) {
+        long rate = 0;
+        if (globalBytesPerSecond > 0) {
+            long totalWeight = activeUsers.values().stream().mapToLong(active -> active.weight).sum();
+            rate = Math.max(1, globalBytesPerSecond * share.weight / Math.max(1, totalWeight));
+        }
+        if (share.capRate > 0) {
+            rate = rate == 0 ? share.capRate : Math.min(rate, share.capRate);
+        }
+        return rate;
+    }
+
+    private UserShare acquireShare(String userId) {
+        // Resolved outside the lock so a slow lookup never blocks other transfers
+        String tier = resolveTier(userId);
+        synchronized (this) {
+            UserShare share = activeUsers.get(userId);
+            if (share == null) {
+                share = new UserShare(userId, tier, tierWeights.getOrDefault(tier, 1),
+                        tierBytesPerSecond.getOrDefault(tier, 0L), ticker);
+                activeUsers.put(userId, share);
+            }
+            share.transfers++;
+            return share;
+        }
+    }
+
+    private synchronized void releaseShare(UserShare share) {
+        share.transfers--;
+        if (share.transfers == 0) {
+            activeUsers.remove(share.userId);
+        }
+    }
+
+    private void consume(UserShare share, long bytes) throws InterruptedIOException {
+        share.bytes.addAndGet(bytes);
+        long started = ticker.nanoTime();
+        try {
+            // The tier cap is applied first so a capped user never holds the head of the shared queue
+            if (share.capBucket != null) {
+                share.capBucket.acquire(bytes);
+            }
+            if (globalBucket != null) {
+                awaitTurn(share, bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted while throttled");
+        } finally {
+            throttledNanos.addAndGet(ticker.nanoTime() - started);
+        }
+    }
+
+    // Self-clocked fair queuing: chunks leave in order of virtual finish time and only when the global
+    // bucket can pay for them. The link never idles while someone is waiting, so bandwidth left unused
+    // by idle or slow users goes to the others in proportion to their weights.
+    private void awaitTurn(UserShare share, long bytes) throws InterruptedException {
+        long permits = Math.min(bytes, globalBucket.getCapacity());
+        queueLock.lock();
+        try {
+            // A user's chunks queue behind their own earlier ones; an idle user re-enters at the current
+            // virtual time rather than cashing in the bandwidth it did not use
+            double start = Math.max(virtualTime, share.lastFinish);
+            Request request = new Request(start + (double) permits / share.weight, requestSequence++);
+            share.lastFinish = request.finish;
+            queue.add(request);
+            try {
+                while (true) {
+                    if (queue.peek() == request) {
+                        long waitNanos = globalBucket.nanosUntilAvailable(permits);
+                        if (waitNanos == 0 && globalBucket.tryAcquire(permits)) {
+                            queue.poll();
+                            virtualTime = Math.max(virtualTime, request.finish);
+                            turnChanged.signalAll();
+                            return;
+                        }
+                        // Woken early if a chunk with an earlier finish time arrives
+                        ticker.await(turnChanged, Math.max(waitNanos, 1));
+                    } else {
+                        turnChanged.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                queue.remove(request);
+                turnChanged.signalAll();
+                throw e;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // A tenth of a second of burst keeps pacing smooth without starving small reads
+    private static long burstFor(long rate) {
+        return Math.max(CHUNK_SIZE, rate / 10);
+    }
+
+    private String resolveTier(String userId) {
+        Set<String> roles = Optional.ofNullable(userId)
+                .flatMap(userRepository::findById)
+                .map(User::getRoles)
+                .orElse(Set.of());
+        // The highest-weighted configured tier among the user's roles wins
+        return roles.stream()
+                .filter(tierWeights::containsKey)
+                .max((a, b) -> Integer.compare(tierWeights.get(a), tierWeights.get(b)))
+                .orElse(DEFAULT_TIER);
+    }
+
+    private static class UserShare {
+        private final String userId;
+        private final String tier;
+        private final int weight;
+        private final long capRate;
+        private final TokenBucket capBucket;
+        private final AtomicLong bytes = new AtomicLong();
+        private int transfers;
+        // Guarded by queueLock
+        private double lastFinish;
+
+        UserShare(String userId, String tier, int weight, long capRate, TokenBucket.Ticker ticker) {
+            this.userId = userId;
+            this.tier = tier;
+            this.weight = Math.max(1, weight);
+            this.capRate = Math.max(0, capRate);
+            this.capBucket = this.capRate > 0 ? new TokenBucket(this.capRate, burstFor(this.capRate), ticker) : null;
+        }
+    }
+
+    private record Request(double finish, long sequence) implements Comparable<Request> {
+        @Override
+        public int compareTo(Request other) {
+            int byFinish = Double.compare(finish, other.finish);
+            return byFinish != 0 ? byFinish : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private class ThrottledInputStream extends FilterInputStream {
+
+        private final UserShare share;
+        private boolean released;
+
+        ThrottledInputStream(InputStream in, UserShare share) {
+            super(in);
+            this.share = share;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                consume(share, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, Math.min(len, CHUNK_SIZE));
+            if (read > 0) {
+                consume(share, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    releaseShare(share);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.filestorage.tracing;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class MongoTimingConfig {
+
+    // The sync driver fires these on the calling thread, so they land in that request's timing
+    @Bean
+    public MongoClientSettingsBuilderCustomizer requestTimingCommandListener() {
+        return builder -> builder.addCommandListener(new CommandListener() {
+            @Override
+            public void commandStarted(CommandStartedEvent event) {
+                RequestTiming timing = RequestTiming.current();
+                if (timing == null) {
+                    return;
+                }
+                // For CRUD commands the first key's value is the collection, e.g. {find: "users"}
+                var value = event.getCommand().get(event.getCommandName());
+                String target = value != null && value.isString() ? value.asString().getValue() : event.getCommandName();
+                timing.commandStarted(event.getRequestId(), "mongo-" + target);
+            }
+
+            @Override
+            public void commandSucceeded(CommandSucceededEvent event) {
+                RequestTiming timing = RequestTiming.current();
+                if (timing != null) {
+                    timing.commandFinished(event.getRequestId(), event.getElapsedTime(TimeUnit.NANOSECONDS));
+                }
+            }
+
+            @Override
+            public void commandFailed(CommandFailedEvent event) {
+                RequestTiming timing = RequestTiming.current();
+                if (timing != null) {
+                    timing.commandFinished(event.getRequestId(), event.getElapsedTime(TimeUnit.NANOSECONDS));
+                }
+            }
+        });
+    }
+}
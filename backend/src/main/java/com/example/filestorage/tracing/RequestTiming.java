@@ -0,0 +1,127 @@
+package com.example.filestorage.tracing;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+    private static final Phase NOOP = () -> { };
+
+    // Checked before the ThreadLocal so a disabled layer costs one volatile read per call site
+    private static volatile boolean active;
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<Integer, String> pendingCommands = new HashMap<>();
+
+    public interface Phase extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private RequestTiming() {
+    }
+
+    static void setActive(boolean enabled) {
+        active = enabled;
+    }
+
+    static RequestTiming begin() {
+        RequestTiming timing = new RequestTiming();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    public static RequestTiming current() {
+        return active ? CURRENT.get() : null;
+    }
+
+    public static Phase start(String name) {
+        RequestTiming timing = current();
+        if (timing == null) {
+            return NOOP;
+        }
+        long started = System.nanoTime();
+        return () -> timing.record(name, System.nanoTime() - started);
+    }
+
+    public static InputStream timed(InputStream in, String name) {
+        RequestTiming timing = current();
+        if (timing == null) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                long started = System.nanoTime();
+                try {
+                    return super.read();
+                } finally {
+                    timing.record(name, System.nanoTime() - started);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long started = System.nanoTime();
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    timing.record(name, System.nanoTime() - started);
+                }
+            }
+        };
+    }
+
+    public void record(String name, long nanos) {
+        phases.merge(name, nanos, Long::sum);
+    }
+
+    void commandStarted(int requestId, String label) {
+        pendingCommands.put(requestId, label);
+    }
+
+    void commandFinished(int requestId, long nanos) {
+        String label = pendingCommands.remove(requestId);
+        if (label != null) {
+            record(label, nanos);
+        }
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            header.append(phase.getKey()).append(";dur=").append(millis(phase.getValue())).append(", ");
+        }
+        return header.append("total;dur=").append(millis(elapsedNanos())).toString();
+    }
+
+    String toLogFields() {
+        StringBuilder fields = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (fields.length() > 0) {
+                fields.append(' ');
+            }
+            fields.append(phase.getKey()).append("_ms=").append(millis(phase.getValue()));
+        }
+        return fields.toString();
+    }
+
+    static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000d);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.filestorage.tracing;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestTimingFilter extends OncePerRequestFilter {
+
+    private static final Logger slowRequestLogger = LoggerFactory.getLogger("request.timing.slow");
+
+    @Value("${request-timing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${request-timing.server-timing-header:true}")
+    private boolean serverTimingHeader;
+
+    @Value("${request-timing.slow-threshold-ms:1000}")
+    private long slowThresholdMs;
+
+    @Value("${request-timing.slow-sample-rate:1.0}")
+    private double slowSampleRate;
+
+    @PostConstruct
+    public void init() {
+        RequestTiming.setActive(enabled);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!enabled) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        RequestTiming timing = RequestTiming.begin();
+        ServerTimingResponse timedResponse = new ServerTimingResponse(response, timing);
+        try {
+            filterChain.doFilter(request, timedResponse);
+        } finally {
+            timedResponse.addServerTiming();
+            RequestTiming.end();
+
+            long totalNanos = timing.elapsedNanos();
+            if (totalNanos >= slowThresholdMs * 1_000_000L && ThreadLocalRandom.current().nextDouble() < slowSampleRate) {
+                slowRequestLogger.info("slow_request method={} uri={} status={} total_ms={} {}",
+                        request.getMethod(), request.getRequestURI(), response.getStatus(),
+                        RequestTiming.millis(totalNanos), timing.toLogFields());
+            }
+        }
+    }
+
+    // Adds the header just before the body starts, which is the last moment headers can still change
+    private class ServerTimingResponse extends HttpServletResponseWrapper {
+
+        private final RequestTiming timing;
+        private boolean headerAdded;
+
+        ServerTimingResponse(HttpServletResponse response, RequestTiming timing) {
+            super(response);
+            this.timing = timing;
+        }
+
+        void addServerTiming() {
+            if (headerAdded || !serverTimingHeader || isCommitted()) {
+                return;
+            }
+            headerAdded = true;
+            setHeader("Server-Timing", timing.toServerTiming());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addServerTiming();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addServerTiming();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addServerTiming();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addServerTiming();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addServerTiming();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addServerTiming();
+            super.sendRedirect(location);
+        }
+    }
+}
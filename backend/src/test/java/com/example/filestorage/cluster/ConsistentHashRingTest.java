@@ -0,0 +1,71 @@
+package com.example.filestorage.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final int KEYS = 20_000;
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertThat(new ConsistentHashRing(List.of(), 128).owner("user")).isNull();
+    }
+
+    @Test
+    void everyNodeBuildsTheSameRingRegardlessOfMembershipOrder() {
+        ConsistentHashRing a = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        ConsistentHashRing b = new ConsistentHashRing(List.of("node3", "node1", "node2"), 128);
+
+        for (int i = 0; i < KEYS; i++) {
+            assertThat(a.owner("user-" + i)).isEqualTo(b.owner("user-" + i));
+        }
+    }
+
+    @Test
+    void virtualNodesSpreadKeysEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.owner("user-" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts).containsOnlyKeys("node1", "node2", "node3");
+        // A third each, give or take a quarter
+        counts.values().forEach(count -> assertThat(count).isBetween(KEYS / 4, KEYS * 5 / 12));
+    }
+
+    @Test
+    void addingANodeOnlyMovesKeysToIt() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("node1", "node2", "node3", "node4"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            if (!before.owner(key).equals(after.owner(key))) {
+                assertThat(after.owner(key)).isEqualTo("node4");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(KEYS / 6, KEYS / 3);
+    }
+
+    @Test
+    void removingANodeOnlyMovesItsKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("node1", "node3"), 128);
+
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            if (!"node2".equals(before.owner(key))) {
+                assertThat(after.owner(key)).isEqualTo(before.owner(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.cluster.ClusterService;
+import com.example.filestorage.model.DeletionJob;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.repository.DeletionJobRepository;
+import com.example.filestorage.repository.FileMetadataRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeletionJobServiceTest {
+
+    private static final int PARALLELISM = 2;
+
+    @TempDir
+    Path uploadDir;
+
+    private final DeletionJobRepository deletionJobRepository = mock(DeletionJobRepository.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final SearchIndexService searchIndexService = mock(SearchIndexService.class);
+    private final ClusterService clusterService = mock(ClusterService.class);
+    // Latched when a job is saved as finished or paused, keyed by job id
+    private final Map<String, CountDownLatch> finished = new ConcurrentHashMap<>();
+    private final Set<String> started = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger jobIds = new AtomicInteger();
+    private DeletionJobService deletionJobService;
+
+    @BeforeEach
+    void setUp() {
+        when(deletionJobRepository.save(any(DeletionJob.class))).thenAnswer(invocation -> {
+            DeletionJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId("job-" + jobIds.incrementAndGet());
+            }
+            CountDownLatch latch = finished.computeIfAbsent(job.getId(), id -> new CountDownLatch(1));
+            if (job.getStatus() == DeletionJob.Status.RUNNING) {
+                started.add(job.getId());
+            } else if (job.getStatus() != DeletionJob.Status.PENDING || started.contains(job.getId())) {
+                latch.countDown();
+            }
+            return job;
+        });
+        when(clusterService.isLocal(anyString())).thenReturn(true);
+        FileMetadataRepository fileMetadataRepository = mock(FileMetadataRepository.class);
+        when(fileMetadataRepository.findActiveByOwnerIdAndFilenameIn(anyString(), anyCollection())).thenReturn(List.of());
+
+        FileStorageService storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "uploadDir", uploadDir.toString());
+
+        deletionJobService = new DeletionJobService();
+        ReflectionTestUtils.setField(deletionJobService, "parallelism", PARALLELISM);
+        ReflectionTestUtils.setField(deletionJobService, "batchSize", 100);
+        ReflectionTestUtils.setField(deletionJobService, "concurrentJobs", 2);
+        ReflectionTestUtils.setField(deletionJobService, "deletionJobRepository", deletionJobRepository);
+        ReflectionTestUtils.setField(deletionJobService, "fileStorageService", storage);
+        ReflectionTestUtils.setField(deletionJobService, "fileMetadataRepository", fileMetadataRepository);
+        ReflectionTestUtils.setField(deletionJobService, "metadataWriteBuffer", new MetadataWriteBuffer());
+        ReflectionTestUtils.setField(deletionJobService, "searchIndexService", searchIndexService);
+        ReflectionTestUtils.setField(deletionJobService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(deletionJobService, "clusterService", clusterService);
+        deletionJobService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        deletionJobService.shutdown();
+    }
+
+    @Test
+    void accountDeletionTombstonesFilesBeforeReturning() throws Exception {
+        DeletionJob job = deletionJobService.submitAccountDeletion("alice");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(query.capture(), update.capture(), eq(FileMetadata.class));
+        assertThat(query.getValue().getQueryObject().get("ownerId")).isEqualTo("alice");
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class).get("deleted")).isEqualTo(true);
+        verify(searchIndexService).deleteByOwner("alice");
+        assertThat(job.getType()).isEqualTo(DeletionJob.Type.ACCOUNT);
+        awaitFinished(job);
+    }
+
+    @Test
+    void bulkDeletionOnlyTombstonesTheOwnersFiles() throws Exception {
+        FileMetadata owned = new FileMetadata();
+        owned.setId("file-1");
+        when(mongoTemplate.find(any(Query.class), eq(FileMetadata.class))).thenReturn(List.of(owned), List.of());
+
+        DeletionJob job = deletionJobService.submitBulkDeletion("alice", List.of("file-1", "someone-elses"));
+
+        assertThat(job.getFileIds()).containsExactly("file-1");
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(query.capture(), any(Update.class), eq(FileMetadata.class));
+        assertThat(query.getValue().getQueryObject().get("ownerId")).isEqualTo("alice");
+        verify(searchIndexService).deleteAll("alice", List.of("file-1"));
+        awaitFinished(job);
+    }
+
+    @Test
+    void resumesUnfinishedJobsOfLocalOwnersOnly() throws Exception {
+        DeletionJob local = job("job-local", "alice", DeletionJob.Status.RUNNING);
+        DeletionJob remote = job("job-remote", "bob", DeletionJob.Status.PENDING);
+        when(deletionJobRepository.findByStatusIn(anyCollection())).thenReturn(List.of(local, remote));
+        when(clusterService.isLocal("alice")).thenReturn(true);
+        when(clusterService.isLocal("bob")).thenReturn(false);
+
+        deletionJobService.resumePendingJobs();
+
+        awaitFinished(local);
+        assertThat(local.getStatus()).isEqualTo(DeletionJob.Status.COMPLETED);
+        assertThat(remote.getStatus()).isEqualTo(DeletionJob.Status.PENDING);
+    }
+
+    @Test
+    void jobPausesWhenTheOwnerMovesToAnotherNode() throws Exception {
+        FileMetadata file = new FileMetadata();
+        file.setId("file-1");
+        file.setOwnerId("alice");
+        file.setFilename("a.txt");
+        Path stored = uploadDir.resolve("user_alice").resolve("a.txt");
+        Files.createDirectories(stored.getParent());
+        Files.writeString(stored, "still here");
+        when(mongoTemplate.find(any(Query.class), eq(FileMetadata.class))).thenReturn(List.of(file));
+        when(clusterService.isLocal("alice")).thenReturn(false);
+
+        DeletionJob job = deletionJobService.submitBulkDeletion("alice", List.of("file-1"));
+
+        awaitFinished(job);
+        assertThat(job.getStatus()).isEqualTo(DeletionJob.Status.PENDING);
+        assertThat(stored).exists();
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(FileMetadata.class));
+    }
+
+    @Test
+    void saturatedDeletePoolRunsDeletesOnTheCallingThread() throws Exception {
+        ExecutorService deleteExecutor = (ExecutorService) ReflectionTestUtils.getField(deletionJobService, "deleteExecutor");
+        CountDownLatch release = new CountDownLatch(1);
+        // One task per worker and a full queue
+        int capacity = PARALLELISM + PARALLELISM * 4;
+        for (int i = 0; i < capacity; i++) {
+            deleteExecutor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        deleteExecutor.execute(() -> ranOn.set(Thread.currentThread()));
+
+        assertThat(ranOn.get()).isSameAs(Thread.currentThread());
+        release.countDown();
+    }
+
+    private DeletionJob job(String id, String ownerId, DeletionJob.Status status) {
+        DeletionJob job = new DeletionJob();
+        job.setId(id);
+        job.setOwnerId(ownerId);
+        job.setType(DeletionJob.Type.BULK);
+        job.setStatus(status);
+        job.setFileIds(List.of());
+        return job;
+    }
+
+    private void awaitFinished(DeletionJob job) throws InterruptedException {
+        CountDownLatch latch = finished.computeIfAbsent(job.getId(), id -> new CountDownLatch(1));
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.model.BlockSignature;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.repository.FileMetadataRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeltaSyncServiceTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @TempDir
+    Path uploadDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DeltaSyncService deltaSyncService;
+    private FileMetadata metadata;
+    private FileStorageService storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        FileMetadataRepository repository = mock(FileMetadataRepository.class);
+        when(repository.save(any(FileMetadata.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        FileEncryptionService encryption = new FileEncryptionService();
+
+        FileStorageService storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "uploadDir", uploadDir.toString());
+        ReflectionTestUtils.setField(storage, "fileEncryptionService", encryption);
+
+        deltaSyncService = new DeltaSyncService();
+        ReflectionTestUtils.setField(deltaSyncService, "fileStorageService", storage);
+        ReflectionTestUtils.setField(deltaSyncService, "fileMetadataRepository", repository);
+        ReflectionTestUtils.setField(deltaSyncService, "metadataWriteBuffer", new MetadataWriteBuffer());
+        ReflectionTestUtils.setField(deltaSyncService, "searchIndexService", mock(SearchIndexService.class));
+        ReflectionTestUtils.setField(deltaSyncService, "fileEncryptionService", encryption);
+        ReflectionTestUtils.setField(deltaSyncService, "objectMapper", objectMapper);
+        TransferScheduler transferScheduler = new TransferScheduler();
+        StorageMetrics storageMetrics = new StorageMetrics();
+        ReflectionTestUtils.setField(storageMetrics, "registry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(storageMetrics, "transferScheduler", transferScheduler);
+        storageMetrics.init();
+        ReflectionTestUtils.setField(deltaSyncService, "storageMetrics", storageMetrics);
+        ReflectionTestUtils.setField(deltaSyncService, "transferScheduler", transferScheduler);
+        this.storage = storage;
+
+        metadata = new FileMetadata();
+        metadata.setId("file-1");
+        metadata.setOwnerId("owner");
+        metadata.setFilename("data.bin");
+        Files.createDirectories(storage.getUserDir("owner"));
+    }
+
+    @Test
+    void weakChecksumMatchesRsyncDefinition() {
+        byte[] data = {1, 2, 3};
+        // a = 1 + 2 + 3, b = 3*1 + 2*2 + 1*3
+        assertThat(DeltaSyncService.weakChecksum(data, 0, 3)).isEqualTo((10L << 16) | 6);
+    }
+
+    @Test
+    void signatureCoversEveryBlockIncludingAShortLastOne() throws Exception {
+        byte[] content = randomBytes(3 * BLOCK_SIZE + 100, 1);
+        store(content);
+
+        List<BlockSignature> blocks = signature();
+
+        assertThat(blocks).hasSize(4);
+        assertThat(blocks.get(3).getWeak()).isEqualTo(DeltaSyncService.weakChecksum(content, 3 * BLOCK_SIZE, 100));
+        assertThat(blocks.get(0).getStrong()).isEqualTo(md5(content, 0, BLOCK_SIZE));
+    }
+
+    @Test
+    void streamedSignatureIsValidJson() throws IOException {
+        store(randomBytes(2 * BLOCK_SIZE, 2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        deltaSyncService.writeSignature(metadata, BLOCK_SIZE, out);
+        JsonNode json = objectMapper.readTree(out.toByteArray());
+
+        assertThat(json.get("fileId").asText()).isEqualTo("file-1");
+        assertThat(json.get("blockSize").asInt()).isEqualTo(BLOCK_SIZE);
+        assertThat(json.get("blocks")).hasSize(2);
+    }
+
+    @Test
+    void rejectsBlockSizesThatWouldProduceTooManyBlocks() {
+        long hugeFile = 50L * 1024 * 1024 * 1024;
+        assertThatThrownBy(() -> deltaSyncService.checkSignatureRequest(hugeFile, DeltaSyncService.MIN_BLOCK_SIZE))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        int defaultSize = deltaSyncService.defaultBlockSize(hugeFile);
+        deltaSyncService.checkSignatureRequest(hugeFile, defaultSize);
+        assertThat(deltaSyncService.defaultBlockSize(5L * 1024 * 1024 * 1024 * 1024) * DeltaSyncService.MAX_SIGNATURE_BLOCKS)
+                .isGreaterThanOrEqualTo(5L * 1024 * 1024 * 1024 * 1024);
+    }
+
+    @Test
+    void roundTripRebuildsTheNewVersion() throws Exception {
+        byte[] original = randomBytes(20 * BLOCK_SIZE + 300, 3);
+        store(original);
+
+        // Insert a few bytes near the start and overwrite a block in the middle
+        byte[] updated = new byte[original.length + 5];
+        System.arraycopy(original, 0, updated, 0, 700);
+        System.arraycopy(new byte[]{9, 9, 9, 9, 9}, 0, updated, 700, 5);
+        System.arraycopy(original, 700, updated, 705, original.length - 700);
+        Arrays.fill(updated, 10 * BLOCK_SIZE, 11 * BLOCK_SIZE, (byte) 7);
+
+        byte[] delta = buildDelta(signature(), updated);
+        assertThat(delta.length).isLessThan(updated.length / 4);
+
+        FileMetadata saved = deltaSyncService.applyDelta(metadata, new ByteArrayInputStream(delta), sha256(updated));
+
+        assertThat(saved.getSize()).isEqualTo(updated.length);
+        assertThat(Files.readAllBytes(storedPath())).isEqualTo(updated);
+    }
+
+    @Test
+    void wrongChecksumLeavesTheStoredFileAlone() throws Exception {
+        byte[] original = randomBytes(4 * BLOCK_SIZE, 4);
+        store(original);
+        byte[] delta = buildDelta(signature(), randomBytes(BLOCK_SIZE, 5));
+
+        assertThatThrownBy(() -> deltaSyncService.applyDelta(metadata, new ByteArrayInputStream(delta), sha256(original)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(Files.readAllBytes(storedPath())).isEqualTo(original);
+        assertThat(stagingFiles()).isEmpty();
+    }
+
+    @Test
+    void truncatedDeltaIsAClientError() throws Exception {
+        store(randomBytes(4 * BLOCK_SIZE, 6));
+        byte[] delta = buildDelta(signature(), randomBytes(2 * BLOCK_SIZE, 7));
+        byte[] truncated = Arrays.copyOf(delta, delta.length - 10);
+
+        assertThatThrownBy(() -> deltaSyncService.applyDelta(metadata, new ByteArrayInputStream(truncated), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(stagingFiles()).isEmpty();
+    }
+
+    @Test
+    void unreadableBodyIsAClientError() throws Exception {
+        store(randomBytes(BLOCK_SIZE, 8));
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Malformed chunked encoding");
+            }
+        };
+
+        assertThatThrownBy(() -> deltaSyncService.applyDelta(metadata, broken, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void fileReplacedDuringTheDeltaIsAConflict() throws Exception {
+        byte[] original = randomBytes(4 * BLOCK_SIZE, 10);
+        store(original);
+        byte[] replacement = randomBytes(4 * BLOCK_SIZE, 11);
+        byte[] delta = buildDelta(signature(), randomBytes(4 * BLOCK_SIZE, 12));
+
+        // Another upload lands while the body is still being read
+        InputStream body = new ByteArrayInputStream(delta) {
+            private boolean replaced;
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (!replaced) {
+                    replaced = true;
+                    try {
+                        storage.writeAtomically(storedPath(), "owner", false, out -> out.write(ByteBuffer.wrap(replacement)));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+
+        assertThatThrownBy(() -> deltaSyncService.applyDelta(metadata, body, null))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(Files.readAllBytes(storedPath())).isEqualTo(replacement);
+        assertThat(stagingFiles()).isEmpty();
+    }
+
+    @Test
+    void copyOutsideTheStoredFileIsRejected() throws Exception {
+        store(randomBytes(2 * BLOCK_SIZE, 9));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BLOCK_SIZE);
+        out.writeByte(1);
+        out.writeInt(1);
+        out.writeInt(5);
+        out.writeByte(0);
+
+        assertThatThrownBy(() -> deltaSyncService.applyDelta(metadata, new ByteArrayInputStream(bytes.toByteArray()), null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // A minimal client: roll the weak checksum over the new data and emit copy ops for confirmed matches
+    private static byte[] buildDelta(List<BlockSignature> signature, byte[] data) throws Exception {
+        Map<Long, List<BlockSignature>> byWeak = new HashMap<>();
+        for (BlockSignature block : signature) {
+            byWeak.computeIfAbsent(block.getWeak(), weak -> new ArrayList<>()).add(block);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BLOCK_SIZE);
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        int position = 0;
+        while (position < data.length) {
+            int length = Math.min(BLOCK_SIZE, data.length - position);
+            BlockSignature match = null;
+            for (BlockSignature candidate : byWeak.getOrDefault(DeltaSyncService.weakChecksum(data, position, length), List.of())) {
+                if (candidate.getStrong().equals(md5(data, position, length))) {
+                    match = candidate;
+                    break;
+                }
+            }
+            if (match == null) {
+                literal.write(data[position++]);
+                continue;
+            }
+            writeLiteral(out, literal);
+            out.writeByte(1);
+            out.writeInt((int) match.getIndex());
+            out.writeInt(1);
+            position += length;
+        }
+        writeLiteral(out, literal);
+        out.writeByte(0);
+        return bytes.toByteArray();
+    }
+
+    private static void writeLiteral(DataOutputStream out, ByteArrayOutputStream literal) throws IOException {
+        if (literal.size() > 0) {
+            out.writeByte(2);
+            out.writeInt(literal.size());
+            literal.writeTo(out);
+            literal.reset();
+        }
+    }
+
+    private List<BlockSignature> signature() throws IOException {
+        List<BlockSignature> blocks = new ArrayList<>();
+        deltaSyncService.computeSignature(metadata, BLOCK_SIZE, blocks::add);
+        return blocks;
+    }
+
+    private void store(byte[] content) throws IOException {
+        Files.write(storedPath(), content);
+        metadata.setSize(content.length);
+    }
+
+    private Path storedPath() {
+        return uploadDir.resolve("user_owner").resolve("data.bin");
+    }
+
+    private List<Path> stagingFiles() throws IOException {
+        try (var files = Files.list(uploadDir.resolve("user_owner"))) {
+            return files.filter(path -> path.getFileName().toString().startsWith(FileStorageService.STAGING_PREFIX)).toList();
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String md5(byte[] data, int offset, int length) throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(data, offset, length);
+        return HexFormat.of().formatHex(md5.digest());
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.filestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileEncryptionServiceTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int HEADER_LENGTH = 57;
+    private static final int TAG_LENGTH = 16;
+
+    @TempDir
+    Path dir;
+
+    private FileEncryptionService encryption;
+
+    @BeforeEach
+    void setUp() {
+        encryption = new FileEncryptionService();
+        ReflectionTestUtils.setField(encryption, "enabled", true);
+        ReflectionTestUtils.setField(encryption, "masterKeyBase64", Base64.getEncoder().encodeToString(new byte[32]));
+        ReflectionTestUtils.setField(encryption, "segmentSize", SEGMENT_SIZE);
+        encryption.init();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 3 * SEGMENT_SIZE, 5 * SEGMENT_SIZE + 123})
+    void roundTripsAndAddsOneTagPerSegment(int length) throws IOException {
+        byte[] content = randomBytes(length, length);
+        Path file = encrypt(content, "owner", "data.bin");
+
+        // A full last segment is sealed as the final one; only an empty file has an empty segment
+        int segments = Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        assertThat(Files.size(file)).isEqualTo(HEADER_LENGTH + length + (long) TAG_LENGTH * segments);
+        try (InputStream in = encryption.openStream(file, "owner", "data.bin")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void seeksDecryptTheRightBytesAcrossSegmentBoundaries() throws IOException {
+        byte[] content = randomBytes(4 * SEGMENT_SIZE + 500, 1);
+        Path file = encrypt(content, "owner", "video.mp4");
+
+        try (SeekableByteChannel channel = encryption.openDecrypting(file, "owner", "video.mp4")) {
+            assertThat(channel.size()).isEqualTo(content.length);
+            for (long position : new long[]{3 * SEGMENT_SIZE + 10, SEGMENT_SIZE - 3, 0, 4 * SEGMENT_SIZE, content.length - 1}) {
+                ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE + 7);
+                channel.position(position);
+                int read = channel.read(buffer);
+                int expected = (int) Math.min(buffer.capacity(), content.length - position);
+                assertThat(read).isEqualTo(expected);
+                assertThat(Arrays.copyOf(buffer.array(), read))
+                        .isEqualTo(Arrays.copyOfRange(content, (int) position, (int) position + expected));
+            }
+            channel.position(content.length);
+            assertThat(channel.read(ByteBuffer.allocate(1))).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void skipLandsOnTheRequestedOffset() throws IOException {
+        byte[] content = randomBytes(3 * SEGMENT_SIZE, 2);
+        Path file = encrypt(content, "owner", "clip.mp4");
+
+        try (InputStream in = encryption.openStream(file, "owner", "clip.mp4")) {
+            assertThat(in.skip(2 * SEGMENT_SIZE + 5)).isEqualTo(2 * SEGMENT_SIZE + 5);
+            assertThat(in.readNBytes(10)).isEqualTo(Arrays.copyOfRange(content, 2 * SEGMENT_SIZE + 5, 2 * SEGMENT_SIZE + 15));
+            assertThat(in.skip(Long.MAX_VALUE)).isEqualTo(SEGMENT_SIZE - 15);
+        }
+    }
+
+    @Test
+    void flippedCiphertextByteFailsAuthentication() throws IOException {
+        Path file = encrypt(randomBytes(2 * SEGMENT_SIZE, 3), "owner", "data.bin");
+        byte[] stored = Files.readAllBytes(file);
+        stored[HEADER_LENGTH + SEGMENT_SIZE + TAG_LENGTH + 1] ^= 1;
+        Files.write(file, stored);
+
+        try (SeekableByteChannel channel = encryption.openDecrypting(file, "owner", "data.bin")) {
+            // The first segment is untouched and still readable
+            assertThat(channel.read(ByteBuffer.allocate(SEGMENT_SIZE))).isEqualTo(SEGMENT_SIZE);
+            assertThatThrownBy(() -> channel.read(ByteBuffer.allocate(SEGMENT_SIZE))).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void droppingTheFinalSegmentIsDetected() throws IOException {
+        Path file = encrypt(randomBytes(2 * SEGMENT_SIZE + 100, 4), "owner", "data.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(HEADER_LENGTH + 2L * (SEGMENT_SIZE + TAG_LENGTH));
+        }
+
+        try (InputStream in = encryption.openStream(file, "owner", "data.bin")) {
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void blobsAreBoundToTheirOwnerAndFilename() throws IOException {
+        Path file = encrypt(randomBytes(100, 5), "owner", "data.bin");
+
+        for (String[] identity : new String[][]{{"intruder", "data.bin"}, {"owner", "other.bin"}}) {
+            try (InputStream in = encryption.openStream(file, identity[0], identity[1])) {
+                assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+            }
+        }
+    }
+
+    @Test
+    void wrappedKeyCannotBeTransplantedIntoAnotherFile() throws IOException {
+        Path victim = encrypt(randomBytes(100, 6), "owner", "a.bin");
+        Path other = encrypt(randomBytes(100, 7), "owner", "a.bin");
+        byte[] spliced = Files.readAllBytes(other);
+        System.arraycopy(Files.readAllBytes(victim), 0, spliced, 0, HEADER_LENGTH);
+        Files.write(other, spliced);
+
+        try (InputStream in = encryption.openStream(other, "owner", "a.bin")) {
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+        }
+    }
+
+    private Path encrypt(byte[] content, String ownerId, String filename) throws IOException {
+        Path file = Files.createTempFile(dir, "enc", ".bin");
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE);
+             WritableByteChannel encrypting = encryption.encrypting(out, ownerId, filename)) {
+            // Uneven writes exercise segments filled across several calls
+            ByteBuffer source = ByteBuffer.wrap(content);
+            while (source.hasRemaining()) {
+                int limit = Math.min(source.limit(), source.position() + 1000);
+                ByteBuffer chunk = source.duplicate().limit(limit);
+                encrypting.write(chunk);
+                source.position(limit);
+            }
+        }
+        return file;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
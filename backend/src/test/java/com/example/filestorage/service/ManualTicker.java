@@ -0,0 +1,47 @@
+package com.example.filestorage.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+
+// A clock that only moves when told to. With autoAdvance every wait simply moves it forward, which
+// replays a single thread's pacing instantly; without it, waiters poll until the test advances it.
+class ManualTicker implements TokenBucket.Ticker {
+
+    private final AtomicLong now = new AtomicLong();
+    private final boolean autoAdvance;
+
+    ManualTicker(boolean autoAdvance) {
+        this.autoAdvance = autoAdvance;
+    }
+
+    void advance(long nanos) {
+        now.addAndGet(nanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return now.get();
+    }
+
+    @Override
+    public void sleep(long nanos) throws InterruptedException {
+        if (autoAdvance) {
+            advance(nanos);
+            return;
+        }
+        long until = now.get() + nanos;
+        while (now.get() < until) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    @Override
+    public void await(Condition condition, long nanos) throws InterruptedException {
+        if (autoAdvance) {
+            advance(nanos);
+            return;
+        }
+        condition.awaitNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.model.FileMetadata;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MetadataWriteBufferTest {
+
+    @TempDir
+    Path walDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final List<FileMetadata> inserted = Collections.synchronizedList(new ArrayList<>());
+    private final List<MetadataWriteBuffer> buffers = new ArrayList<>();
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        BulkOperations bulkOps = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(FileMetadata.class))).thenReturn(bulkOps);
+        when(bulkOps.insert(anyList())).thenAnswer(invocation -> {
+            inserted.addAll((List<FileMetadata>) invocation.getArgument(0));
+            return bulkOps;
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (MetadataWriteBuffer buffer : buffers) {
+            buffer.shutdown();
+        }
+    }
+
+    @Test
+    void replaysSegmentsLeftByACrashAndSkipsATornLine() throws Exception {
+        String log = objectMapper.writeValueAsString(metadata("a", "one.txt")) + "\n"
+                + objectMapper.writeValueAsString(metadata("b", "two.txt")) + "\n"
+                + "{\"id\":\"c\",\"filena";
+        Files.writeString(walDir.resolve("segment-1-1.log"), log, StandardCharsets.UTF_8);
+
+        newBuffer();
+
+        assertThat(inserted).extracting(FileMetadata::getId).containsExactly("a", "b");
+        assertThat(walDir.resolve("segment-1-1.log")).doesNotExist();
+    }
+
+    @Test
+    void appendedEntriesAreVisibleAndSurviveARestartWithoutFlush() throws Exception {
+        MetadataWriteBuffer buffer = newBuffer();
+        FileMetadata appended = buffer.append(metadata(null, "report.pdf"));
+
+        assertThat(appended.getId()).isNotNull();
+        assertThat(buffer.get(appended.getId())).contains(appended);
+        assertThat(buffer.getByOwner("owner")).containsExactly(appended);
+        assertThat(inserted).isEmpty();
+
+        // A second instance on the same directory stands in for the process after a crash
+        newBuffer();
+        assertThat(inserted).extracting(FileMetadata::getFilename).containsExactly("report.pdf");
+    }
+
+    @Test
+    void concurrentAppendsAreAllDurableAndFlushedOnce() throws Exception {
+        MetadataWriteBuffer buffer = newBuffer();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    buffer.append(metadata(null, "file-" + thread + "-" + i));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(walLines()).hasSize(400);
+
+        buffer.flush();
+        assertThat(inserted).hasSize(400);
+        assertThat(buffer.getByOwner("owner")).isEmpty();
+        assertThat(walLines()).isEmpty();
+    }
+
+    private MetadataWriteBuffer newBuffer() throws Exception {
+        MetadataWriteBuffer buffer = new MetadataWriteBuffer();
+        ReflectionTestUtils.setField(buffer, "enabled", true);
+        ReflectionTestUtils.setField(buffer, "walDir", walDir.toString());
+        ReflectionTestUtils.setField(buffer, "batchSize", 1000);
+        ReflectionTestUtils.setField(buffer, "flushIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(buffer, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(buffer, "objectMapper", objectMapper);
+        buffer.init();
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private List<String> walLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (Stream<Path> segments = Files.list(walDir)) {
+            for (Path segment : segments.toList()) {
+                lines.addAll(Files.readAllLines(segment, StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    private static FileMetadata metadata(String id, String filename) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setId(id);
+        metadata.setFilename(filename);
+        metadata.setOwnerId("owner");
+        metadata.setSize(42);
+        return metadata;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.cluster.ClusterService;
+import com.example.filestorage.model.FileMetadata;
+import com.example.filestorage.model.SearchResults;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SearchIndexServiceTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    @TempDir
+    Path dataDir;
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ClusterService clusterService = mock(ClusterService.class);
+    private SearchIndexService searchIndexService;
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.stream(any(Query.class), eq(FileMetadata.class))).thenAnswer(invocation -> Stream.empty());
+        when(mongoTemplate.exists(any(Query.class), eq(FileMetadata.class))).thenReturn(true);
+        when(clusterService.isLocal(any())).thenReturn(true);
+
+        searchIndexService = new SearchIndexService();
+        ReflectionTestUtils.setField(searchIndexService, "uploadDir", dataDir.resolve("uploads").toString());
+        ReflectionTestUtils.setField(searchIndexService, "enabled", true);
+        ReflectionTestUtils.setField(searchIndexService, "indexDir", dataDir.resolve("index").toString());
+        ReflectionTestUtils.setField(searchIndexService, "maxContentBytes", 1024 * 1024);
+        ReflectionTestUtils.setField(searchIndexService, "queueCapacity", 1000);
+        ReflectionTestUtils.setField(searchIndexService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(searchIndexService, "fileEncryptionService", new FileEncryptionService());
+        ReflectionTestUtils.setField(searchIndexService, "clusterService", clusterService);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        searchIndexService.shutdown();
+    }
+
+    @Test
+    void filenamesMatchByTokenPrefix() throws Exception {
+        searchIndexService.init();
+        searchIndexService.index(file("1", "alice", "q3_report-final.pdf", null));
+
+        assertThat(awaitHits("alice", "repo", 1).get(0).getId()).isEqualTo("1");
+        assertThat(searchIndexService.search("alice", "final q3", 0, 10).getTotalHits()).isEqualTo(1);
+        assertThat(searchIndexService.search("alice", "summary", 0, 10).getTotalHits()).isZero();
+    }
+
+    @Test
+    void contentTermsAreAnalyzedLikeTheContent() throws Exception {
+        searchIndexService.init();
+        searchIndexService.index(file("1", "alice", "notes.txt", "the user_id lives on example.com and pi is 3.14"));
+
+        awaitHits("alice", "notes", 1);
+        // The filename analyzer would split each of these into tokens the content field never saw
+        assertThat(searchIndexService.search("alice", "user_id", 0, 10).getTotalHits()).isEqualTo(1);
+        assertThat(searchIndexService.search("alice", "example.com", 0, 10).getTotalHits()).isEqualTo(1);
+        assertThat(searchIndexService.search("alice", "3.14", 0, 10).getTotalHits()).isEqualTo(1);
+        assertThat(searchIndexService.search("alice", "user_id pi", 0, 10).getTotalHits()).isEqualTo(1);
+        assertThat(searchIndexService.search("alice", "user_id missing", 0, 10).getTotalHits()).isZero();
+    }
+
+    @Test
+    void searchesOnlyTheOwnersFiles() throws Exception {
+        searchIndexService.init();
+        searchIndexService.index(file("1", "alice", "budget.txt", "shared secret"));
+        searchIndexService.index(file("2", "bob", "budget.txt", "shared secret"));
+
+        assertThat(awaitHits("alice", "budget", 1).get(0).getId()).isEqualTo("1");
+        assertThat(awaitHits("bob", "secret", 1).get(0).getId()).isEqualTo("2");
+        assertThat(searchIndexService.search("carol", "budget", 0, 10).getTotalHits()).isZero();
+    }
+
+    @Test
+    void deletedFilesDisappearFromResults() throws Exception {
+        searchIndexService.init();
+        searchIndexService.index(file("1", "alice", "draft.txt", null));
+        searchIndexService.index(file("2", "alice", "draft-2.txt", null));
+        awaitHits("alice", "draft", 2);
+
+        searchIndexService.delete("1");
+
+        assertThat(awaitHits("alice", "draft", 1).get(0).getId()).isEqualTo("2");
+    }
+
+    @Test
+    void rebuildSkipsRemoteOwnersAndFilesDeletedSinceTheScan() throws Exception {
+        FileMetadata remote = file("1", "bob", "plan.txt", null);
+        FileMetadata deleted = file("2", "alice", "plan-old.txt", null);
+        FileMetadata active = file("3", "alice", "plan.txt", null);
+        when(mongoTemplate.stream(any(Query.class), eq(FileMetadata.class)))
+                .thenAnswer(invocation -> Stream.of(remote, deleted, active));
+        when(clusterService.isLocal("bob")).thenReturn(false);
+        when(mongoTemplate.exists(argThat((Query query) -> query.getQueryObject().get("id").equals("2")), eq(FileMetadata.class)))
+                .thenReturn(false);
+
+        searchIndexService.init();
+
+        // The active file is queued last, so once it is visible the other two have been handled
+        assertThat(awaitHits("alice", "plan", 1).get(0).getId()).isEqualTo("3");
+        assertThat(searchIndexService.search("bob", "plan", 0, 10).getTotalHits()).isZero();
+    }
+
+    private FileMetadata file(String id, String ownerId, String filename, String content) throws IOException {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setId(id);
+        metadata.setOwnerId(ownerId);
+        metadata.setFilename(filename);
+        if (content != null) {
+            Path userDir = dataDir.resolve("uploads").resolve("user_" + ownerId);
+            Files.createDirectories(userDir);
+            Files.writeString(userDir.resolve(filename), content, StandardCharsets.UTF_8);
+            metadata.setContentType("text/plain");
+            metadata.setSize(content.length());
+        }
+        return metadata;
+    }
+
+    // Updates are applied by the indexer thread and become visible on the next refresh
+    private List<FileMetadata> awaitHits(String ownerId, String query, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        SearchResults results = searchIndexService.search(ownerId, query, 0, 10);
+        while (results.getTotalHits() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            results = searchIndexService.search(ownerId, query, 0, 10);
+        }
+        assertThat(results.getTotalHits()).isEqualTo(expected);
+        return results.getFiles();
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TokenBucketTest {
+
+    @Test
+    void startsFullAndRefillsAtTheRate() {
+        ManualTicker ticker = new ManualTicker(false);
+        TokenBucket bucket = new TokenBucket(10, 500, ticker);
+
+        assertThat(bucket.tryAcquire(500)).isTrue();
+        assertThat(bucket.tryAcquire(100)).isFalse();
+        assertThat(bucket.nanosUntilAvailable(100)).isCloseTo(10_000_000_000L, within(1L));
+
+        ticker.advance(5_000_000_000L);
+        assertThat(bucket.tryAcquire(50)).isTrue();
+        assertThat(bucket.tryAcquire(1)).isFalse();
+    }
+
+    @Test
+    void refillStopsAtTheCapacity() {
+        ManualTicker ticker = new ManualTicker(false);
+        TokenBucket bucket = new TokenBucket(1_000, 100, ticker);
+
+        ticker.advance(60_000_000_000L);
+        assertThat(bucket.tryAcquire(100)).isTrue();
+        assertThat(bucket.tryAcquire(1)).isFalse();
+    }
+
+    @Test
+    void acquirePacesLargeRequestsByTakingOnDebt() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker(true);
+        TokenBucket bucket = new TokenBucket(1_000_000, 100_000, ticker);
+
+        // 100 KB from the initial burst, the remaining 200 KB at 1 MB/s
+        bucket.acquire(300_000);
+
+        assertThat(ticker.nanoTime()).isCloseTo(200_000_000L, within(1_000L));
+        assertThat(bucket.tryAcquire(1_000)).isFalse();
+        ticker.advance(2_000_000);
+        assertThat(bucket.tryAcquire(1_000)).isTrue();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.filestorage.service;
+
+import com.example.filestorage.model.User;
+import com.example.filestorage.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TransferSchedulerTest {
+
+    private static final int CHUNK = 64 * 1024;
+
+    @Test
+    void disabledSchedulerReturnsTheStreamUntouched() {
+        TransferScheduler scheduler = scheduler(false, 4L * 1024 * 1024, Map.of(), new ManualTicker(true));
+        InputStream in = InputStream.nullInputStream();
+
+        assertThat(scheduler.throttle(in, "alice")).isSameAs(in);
+    }
+
+    @Test
+    void idleUsersDoNotHoldBackBusyOnes() throws Exception {
+        long rate = 4L * 1024 * 1024;
+        ManualTicker ticker = new ManualTicker(true);
+        TransferScheduler scheduler = scheduler(true, rate, Map.of(), ticker);
+
+        // Bob has a transfer open but is not reading from it, so Alice may use the whole budget
+        try (InputStream idle = scheduler.throttle(new Zeros(), "bob");
+             InputStream busy = scheduler.throttle(new Zeros(), "alice")) {
+            assertThat(scheduler.getActiveUserCount()).isEqualTo(2);
+            assertThat(scheduler.getAllocation("alice")).containsEntry("guaranteedBytesPerSecond", rate / 2);
+
+            readFully(busy, rate);
+
+            // 0.9 s at the full rate after the initial burst of a tenth of a second; a static half share needs 1.8 s
+            assertThat(ticker.nanoTime() / 1e9).isCloseTo(0.9, within(0.02));
+            assertThat(scheduler.getThrottledSeconds()).isCloseTo(0.9, within(0.02));
+        }
+        assertThat(scheduler.getActiveUserCount()).isZero();
+    }
+
+    @Test
+    void busyUsersSplitTheBudgetByWeight() throws Exception {
+        // The burst is a single chunk, so every chunk's worth of clock releases exactly one chunk
+        long rate = 256 * 1024;
+        // A little over one chunk of clock, as the refill is floating point; the bucket caps the excess
+        long nanosPerChunk = (long) Math.ceil(CHUNK * 1e9 / rate) + 1_000_000;
+        ManualTicker ticker = new ManualTicker(false);
+        TransferScheduler scheduler = scheduler(true, rate, Map.of("alice", "PREMIUM", "bob", "USER"), ticker);
+        AtomicLong alice = new AtomicLong();
+        AtomicLong bob = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> readForever(scheduler.throttle(new Zeros(), "alice"), alice));
+            executor.submit(() -> readForever(scheduler.throttle(new Zeros(), "bob"), bob));
+
+            // Whoever took the initial burst is queued again once both are waiting
+            awaitCondition(() -> queued(scheduler) == 2);
+            long aliceBefore = alice.get();
+            long bobBefore = bob.get();
+            for (int round = 1; round <= 40; round++) {
+                long granted = alice.get() + bob.get();
+                ticker.advance(nanosPerChunk);
+                awaitCondition(() -> alice.get() + bob.get() == granted + CHUNK && queued(scheduler) == 2);
+            }
+
+            // PREMIUM is weighted 3 against USER's 1
+            assertThat((alice.get() - aliceBefore) / CHUNK).isBetween(29L, 31L);
+            assertThat((bob.get() - bobBefore) / CHUNK).isBetween(9L, 11L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Void readForever(InputStream in, AtomicLong granted) throws IOException {
+        byte[] buffer = new byte[CHUNK];
+        try (in) {
+            while (true) {
+                granted.addAndGet(in.read(buffer));
+            }
+        }
+    }
+
+    private static int queued(TransferScheduler scheduler) {
+        ReentrantLock queueLock = (ReentrantLock) ReflectionTestUtils.getField(scheduler, "queueLock");
+        queueLock.lock();
+        try {
+            return ((PriorityQueue<?>) ReflectionTestUtils.getField(scheduler, "queue")).size();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static void readFully(InputStream in, long bytes) throws IOException {
+        byte[] buffer = new byte[CHUNK];
+        long remaining = bytes;
+        while (remaining > 0) {
+            remaining -= in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        }
+    }
+
+    private static TransferScheduler scheduler(boolean enabled, long rate, Map<String, String> roles, ManualTicker ticker) {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(anyString())).thenAnswer(invocation -> {
+            String role = roles.get(invocation.<String>getArgument(0));
+            if (role == null) {
+                return Optional.empty();
+            }
+            User user = new User();
+            user.setRoles(Set.of(role));
+            return Optional.of(user);
+        });
+
+        TransferScheduler scheduler = new TransferScheduler();
+        ReflectionTestUtils.setField(scheduler, "enabled", enabled);
+        ReflectionTestUtils.setField(scheduler, "globalBytesPerSecond", rate);
+        ReflectionTestUtils.setField(scheduler, "tierBytesPerSecond", Map.of("USER", 0L, "PREMIUM", 0L));
+        ReflectionTestUtils.setField(scheduler, "tierWeights", Map.of("USER", 1, "PREMIUM", 3));
+        ReflectionTestUtils.setField(scheduler, "userRepository", userRepository);
+        ReflectionTestUtils.setField(scheduler, "ticker", ticker);
+        scheduler.init();
+        return scheduler;
+    }
+
+    private static class Zeros extends InputStream {
+        @Override
+        public int read() {
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return len;
+        }
+    }
+}